@@ -0,0 +1,281 @@
+/**
+ *  Divergence (a Sokoban (or Sokouban if you're a purist) clone)
+ *  Copyright (C) 2020 Czespo
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.czespo.divergence;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Benchmarks loading small and huge levels, moving the player and boxes,
+// and drawing the game offscreen at several resolutions, with JMH. Build
+// with `mvn package`, then run from the Divergence directory, optionally
+// with the names of the benchmarks to run, and `-rf json` to write the
+// results as JSON. Allow `-p pack=` to choose the level pack:
+// `java -jar bench/target/benchmarks.jar -rf json -rff divergence.json loadLevel`.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class DivergenceBenchmark
+{
+    // STATIC //
+    
+    // The window the game is laid out in, for everything but drawing.
+    static final int WIDTH = 1280, HEIGHT = 720;
+    
+    static final int HUGE_SIZE = 256;
+    
+    // An open room, where the player can walk, and push
+    // the box, back and forth without ever finishing.
+    static final String ROOM = "#########|#.      #|#       #|#  @$   #|#       #|#       #|#########";
+    
+    // Pushes the box right, walks around it, pushes it back,
+    // and walks back around it to where the player started.
+    static final int[] LAP = {
+        Divergence.RIGHT, Divergence.UP, Divergence.RIGHT, Divergence.RIGHT, Divergence.DOWN,
+        Divergence.LEFT, Divergence.UP, Divergence.LEFT, Divergence.LEFT, Divergence.DOWN
+    };
+    
+    // A square level with walls scattered through it, and a box
+    // and goal for about every fiftieth cell. It need not be solvable.
+    static Level hugeLevel(int size, long seed)
+    {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder();
+        for(int y = 0; y < size; y++)
+        {
+            if(y > 0) sb.append('|');
+            for(int x = 0; x < size; x++)
+            {
+                boolean edge = x == 0 || y == 0 || x == size - 1 || y == size - 1;
+                
+                if(edge) sb.append('#');
+                else if(x == 1 && y == 1) sb.append('@');
+                else
+                {
+                    int r = random.nextInt(100);
+                    sb.append(r < 20 ? '#' : r < 22 ? '$' : r < 24 ? '.' : ' ');
+                }
+            }
+        }
+        
+        return Divergence.parseLevel(sb.toString());
+    }
+    
+    // INNER CLASSES //
+    
+    // The level pack, which the game starts on, shared by every benchmark.
+    @State(Scope.Benchmark)
+    public static class Pack
+    {
+        @Param({"bench/levels"})
+        public String pack;
+        
+        @Setup
+        public void setup()
+        {
+            if(!Divergence.initLevels(pack)) throw new IllegalStateException("Could not open '" + pack + "'.");
+        }
+    }
+    
+    @State(Scope.Thread)
+    public static class Load
+    {
+        @Param({"small", "huge"})
+        public String size;
+        
+        Divergence divergence;
+        
+        Level level;
+        
+        @Setup
+        public void setup(Pack pack)
+        {
+            divergence = new Divergence(WIDTH, HEIGHT);
+            level = size.equals("huge") ? hugeLevel(HUGE_SIZE, 1) : Divergence.levels.get(0);
+        }
+    }
+    
+    @State(Scope.Thread)
+    public static class Walk
+    {
+        Divergence divergence;
+        
+        Level room = Divergence.parseLevel(ROOM);
+        
+        int move;
+        
+        @Setup
+        public void setup(Pack pack)
+        {
+            divergence = new Divergence(WIDTH, HEIGHT);
+        }
+        
+        // Start afresh, as every move is kept to be undone.
+        @Setup(org.openjdk.jmh.annotations.Level.Iteration)
+        public void iteration()
+        {
+            divergence.startLevel(room);
+            move = 0;
+        }
+    }
+    
+    @State(Scope.Thread)
+    public static class Push
+    {
+        Divergence divergence;
+        
+        Point box;
+        
+        boolean right;
+        
+        @Setup
+        public void setup(Pack pack)
+        {
+            divergence = new Divergence(WIDTH, HEIGHT);
+            divergence.startLevel(Divergence.parseLevel(ROOM));
+            
+            box = Divergence.move(Divergence.RIGHT, divergence.currentLevel.player);
+            right = true;
+        }
+    }
+    
+    @State(Scope.Thread)
+    public static class Paint
+    {
+        @Param({"640x480", "1280x720", "1920x1080", "3840x2160"})
+        public String resolution;
+        
+        Divergence divergence;
+        
+        BufferedImage image;
+        
+        Graphics g;
+        
+        @Setup
+        public void setup(Pack pack)
+        {
+            int width = Integer.parseInt(resolution.substring(0, resolution.indexOf('x')));
+            int height = Integer.parseInt(resolution.substring(resolution.indexOf('x') + 1));
+            
+            divergence = new Divergence(width, height);
+            divergence.setSize(width, height);
+            
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            g = image.getGraphics();
+        }
+    }
+    
+    // Sides of the levels drawn, to show that a frame costs the same however large the level.
+    @State(Scope.Thread)
+    public static class Scroll
+    {
+        @Param({"256", "1024", "4096"})
+        public int size;
+        
+        Divergence divergence;
+        
+        BufferedImage image;
+        
+        Graphics g;
+        
+        int step;
+        
+        @Setup
+        public void setup(Pack pack)
+        {
+            divergence = new Divergence(WIDTH, HEIGHT);
+            divergence.setSize(WIDTH, HEIGHT);
+            divergence.startLevel(hugeLevel(size, 1));
+            
+            image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+            g = image.getGraphics();
+        }
+    }
+    
+    // FUNCTIONS //
+    
+    // Laying a level out in the window, and drawing its walls and goals.
+    @Benchmark
+    public int loadLevel(Load state)
+    {
+        return state.divergence.loadLevel(state.level).width;
+    }
+    
+    // One move of the player, mostly walking, sometimes pushing.
+    @Benchmark
+    public boolean update(Walk state)
+    {
+        boolean complete = state.divergence.update(LAP[state.move]);
+        state.move = (state.move + 1) % LAP.length;
+        return complete;
+    }
+    
+    // One push of a box, left and right in turn, with its deadlock check.
+    @Benchmark
+    public boolean moveBox(Push state)
+    {
+        int direction = state.right ? Divergence.RIGHT : Divergence.LEFT;
+        if(!state.divergence.moveBox(direction, state.box)) return false;
+        
+        state.box = Divergence.move(direction, state.box);
+        state.right = !state.right;
+        return true;
+    }
+    
+    // Drawing the whole panel into an image, with the first level of the pack.
+    @Benchmark
+    public int paint(Paint state)
+    {
+        state.divergence.paintComponent(state.g);
+        return state.image.getRGB(state.image.getWidth() / 2, state.image.getHeight() / 2);
+    }
+    
+    // Drawing a huge level into an image, while the view scrolls along
+    // with the player, which walks back and forth along the top row.
+    @Benchmark
+    public int paintMap(Scroll state)
+    {
+        // Walk the player to and fro across the top row, clearing
+        // the way, so that the view keeps scrolling over new chunks.
+        int size = state.size;
+        Level level = state.divergence.currentLevel;
+        int x = 1 + Math.abs(state.step++ % (2 * (size - 3)) - (size - 3));
+        level.board[level.index(x, 1)] = 0;
+        level.player = new Point(x, 1);
+        state.divergence.follow(level.player);
+        
+        state.divergence.paintComponent(state.g);
+        return state.image.getRGB(WIDTH / 2, HEIGHT / 2);
+    }
+}
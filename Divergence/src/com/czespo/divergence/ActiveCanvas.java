@@ -0,0 +1,134 @@
+/**
+ *  Divergence (a Sokoban (or Sokouban if you're a purist) clone)
+ *  Copyright (C) 2020 Czespo
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.czespo.divergence;
+
+import java.awt.Canvas;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Toolkit;
+import java.awt.image.BufferStrategy;
+import java.util.concurrent.locks.LockSupport;
+
+// Draws with a BufferStrategy instead of through Swing's repaint, so
+// frames are drawn exactly when asked for, and flipped rather than
+// copied where the graphics card allows it.
+public class ActiveCanvas extends Canvas
+{
+    // INNER CLASSES //
+    
+    public interface Painter
+    {
+        void draw(Graphics g);
+    }
+    
+    // FIELDS //
+    
+    private final Painter painter;
+    
+    // Measures each frame, from drawing to showing it.
+    private final Metrics.Probe probe;
+    
+    private BufferStrategy strategy;
+    
+    private volatile boolean running;
+    
+    // CONSTRUCTORS //
+    
+    public ActiveCanvas(Painter painter, Metrics.Probe probe, int width, int height)
+    {
+        this.painter = painter;
+        this.probe = probe;
+        
+        this.setIgnoreRepaint(true);
+        this.setFocusable(true);
+        this.setPreferredSize(new Dimension(width, height));
+    }
+    
+    // FUNCTIONS //
+    
+    public Metrics.Probe getProbe()
+    {
+        return probe;
+    }
+    
+    // Draws and shows one frame. The canvas must be displayable.
+    public void render()
+    {
+        if(strategy == null)
+        {
+            // Two buffers: the one on screen, and the one being drawn.
+            this.createBufferStrategy(2);
+            strategy = this.getBufferStrategy();
+        }
+        
+        probe.begin();
+        do
+        {
+            do
+            {
+                Graphics g = strategy.getDrawGraphics();
+                g.setColor(this.getBackground());
+                g.fillRect(0, 0, this.getWidth(), this.getHeight());
+                painter.draw(g);
+                g.dispose();
+            }
+            while(strategy.contentsRestored());
+            
+            strategy.show();
+        }
+        while(strategy.contentsLost());
+        
+        Toolkit.getDefaultToolkit().sync();
+        probe.end();
+    }
+    
+    // Keeps drawing frames on a thread of its own, at most
+    // at the given rate, for games without a loop of their own.
+    public void start(double frameRate)
+    {
+        final long frameNanos = (long) (1e9 / frameRate);
+        running = true;
+        
+        Thread thread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                long next = System.nanoTime();
+                while(running)
+                {
+                    render();
+                    
+                    next += frameNanos;
+                    long sleep = next - System.nanoTime();
+                    if(sleep > 0) LockSupport.parkNanos(sleep);
+                    else next = System.nanoTime();
+                }
+            }
+        }, "Renderer");
+        
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    public void stop()
+    {
+        running = false;
+    }
+}
@@ -18,25 +18,34 @@
  
 package com.czespo.divergence;
 
-public class Cell
+public final class Cell
 {
     // STATIC //
     
-    public static final int FLOOR = 0;
-    public static final int WALL = 1;
+    // Each square of a level is packed into a single byte.
+    // A square is floor unless the WALL bit is set, and may
+    // additionally be a goal and/or hold a box.
+    public static final byte FLOOR = 0;
+    public static final byte WALL = 1;
+    public static final byte GOAL = 2;
+    public static final byte BOX = 4;
     
-    // FIELDS //
+    public static boolean isWall(byte cell)
+    {
+        return (cell & WALL) != 0;
+    }
     
-    public int type;
+    public static boolean isGoal(byte cell)
+    {
+        return (cell & GOAL) != 0;
+    }
     
-    public boolean isGoal, hasBox;
+    public static boolean hasBox(byte cell)
+    {
+        return (cell & BOX) != 0;
+    }
     
     // CONSTRUCTORS //
     
-    public Cell(int type, boolean isGoal, boolean hasBox)
-    {
-        this.type = type;
-        this.isGoal = isGoal;
-        this.hasBox = hasBox;
-    }
+    private Cell() {}
 }
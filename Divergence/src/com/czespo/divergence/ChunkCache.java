@@ -0,0 +1,142 @@
+/**
+ *  Divergence (a Sokoban (or Sokouban if you're a purist) clone)
+ *  Copyright (C) 2020 Czespo
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.czespo.divergence;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Holds pre-drawn images of a level's walls and goals, which never
+// change, a square chunk of cells at a time. A chunk is drawn the first
+// time it comes into view, and only so many are kept, the one least
+// recently shown going first, so showing part of a huge level costs no
+// more than showing a small one that fills the window.
+public class ChunkCache
+{
+    // STATIC //
+    
+    // About how many pixels wide a chunk is drawn, whatever the cell size.
+    static final int CHUNK_PIXELS = 256;
+    
+    // The most chunks kept, enough to fill a 4K screen with room to scroll.
+    static final int MAX_CHUNKS = 256;
+    
+    // FIELDS //
+    
+    private Level level;
+    
+    private TileCache tiles;
+    
+    private int cell;
+    
+    // How many cells wide a chunk is, and how many chunks span the level.
+    private int size, across;
+    
+    // Chunk images by chunk index, least recently shown first.
+    private final LinkedHashMap<Integer, BufferedImage> chunks = new LinkedHashMap<Integer, BufferedImage>(64, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, BufferedImage> eldest)
+        {
+            return size() > MAX_CHUNKS;
+        }
+    };
+    
+    // FUNCTIONS //
+    
+    // Forgets every chunk drawn, to draw a level afresh with tiles of a cell size.
+    public void reset(Level level, TileCache tiles, int cell)
+    {
+        this.level = level;
+        this.tiles = tiles;
+        this.cell = cell;
+        
+        size = Math.max(1, CHUNK_PIXELS / Math.max(1, cell));
+        across = (level.width + size - 1) / size;
+        chunks.clear();
+    }
+    
+    public int chunkSize()
+    {
+        return size;
+    }
+    
+    public int cachedChunks()
+    {
+        return chunks.size();
+    }
+    
+    // Draws the chunks covering a range of cells, inclusive,
+    // with the level's top left corner at (xp, yp).
+    public void draw(Graphics g, int x0, int y0, int x1, int y1, int xp, int yp)
+    {
+        if(cell <= 0) return;
+        
+        for(int cy = y0 / size; cy <= y1 / size; cy++)
+        {
+            for(int cx = x0 / size; cx <= x1 / size; cx++)
+            {
+                g.drawImage(chunk(cx, cy), cx * size * cell + xp, cy * size * cell + yp, null);
+            }
+        }
+    }
+    
+    private BufferedImage chunk(int cx, int cy)
+    {
+        Integer key = cy * across + cx;
+        BufferedImage chunk = chunks.get(key);
+        if(chunk != null) return chunk;
+        
+        // Chunks on the right and bottom edges are cut short by the level.
+        int x0 = cx * size, y0 = cy * size;
+        int width = Math.min(size, level.width - x0), height = Math.min(size, level.height - y0);
+        
+        chunk = TileCache.createImage(width * cell, height * cell, Transparency.OPAQUE);
+        Graphics g = chunk.getGraphics();
+        g.setColor(Color.BLACK);
+        g.fillRect(0, 0, chunk.getWidth(), chunk.getHeight());
+        
+        for(int y = 0; y < height; y++)
+        {
+            int i = (y0 + y) * level.width + x0;
+            for(int x = 0; x < width; x++, i++)
+            {
+                byte c = level.board[i];
+                if(Cell.isWall(c))
+                {
+                    // Draw the walls.
+                    g.drawImage(tiles.get(TileCache.WALL), x * cell, y * cell, null);
+                }
+                else if(Cell.isGoal(c))
+                {
+                    // Draw the goals.
+                    g.drawImage(tiles.get(TileCache.GOAL), x * cell, y * cell, null);
+                }
+            }
+        }
+        
+        g.dispose();
+        
+        chunks.put(key, chunk);
+        return chunk;
+    }
+}
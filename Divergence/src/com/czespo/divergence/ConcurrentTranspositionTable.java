@@ -0,0 +1,75 @@
+/**
+ *  Divergence (a Sokoban (or Sokouban if you're a purist) clone)
+ *  Copyright (C) 2020 Czespo
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.czespo.divergence;
+
+public class ConcurrentTranspositionTable
+{
+    // FIELDS //
+    
+    // The table is split into stripes, each guarded by its own lock,
+    // so that threads only contend when they hit the same stripe.
+    private final TranspositionTable[] stripes;
+    
+    private final int mask;
+    
+    // CONSTRUCTORS //
+    
+    public ConcurrentTranspositionTable(int stripeCount, int capacity)
+    {
+        int n = 1;
+        while(n < stripeCount) n <<= 1;
+        
+        stripes = new TranspositionTable[n];
+        for(int i = 0; i < n; i++) stripes[i] = new TranspositionTable(capacity / n);
+        
+        mask = n - 1;
+    }
+    
+    // FUNCTIONS //
+    
+    public int size()
+    {
+        int size = 0;
+        for(TranspositionTable stripe : stripes)
+        {
+            synchronized(stripe)
+            {
+                size += stripe.size();
+            }
+        }
+        
+        return size;
+    }
+    
+    // Stores the cost if the key is new or the cost is lower than the
+    // stored one, returning whether it did. The check and the store
+    // happen under one lock, so only one thread can win a state.
+    public boolean improve(long key, int value)
+    {
+        TranspositionTable stripe = stripes[(int) (key >>> 40) & mask];
+        synchronized(stripe)
+        {
+            int seen = stripe.get(key);
+            if(seen != -1 && seen <= value) return false;
+            
+            stripe.put(key, value);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,305 @@
+/**
+ *  Divergence (a Sokoban (or Sokouban if you're a purist) clone)
+ *  Copyright (C) 2020 Czespo
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.czespo.divergence;
+
+import java.util.Random;
+
+public class DeadlockDetector
+{
+    // STATIC //
+    
+    // Corrals larger than this are assumed to be alive, so that
+    // a push never floods more than a small patch of the board.
+    static final int CORRAL_LIMIT = 64;
+    
+    public static void main(String[] args)
+    {
+        // Measure the cost of checking a push, by pushing boxes
+        // around every level at random. Allow an `-n` flag to set
+        // the number of steps per level: `-n 1000000`.
+        int steps = 1000000;
+        for(int i = 0; i + 1 < args.length; i++)
+        {
+            if(args[i].equals("-n")) steps = Integer.parseInt(args[i + 1]);
+        }
+        
+        if(!Divergence.initLevels()) return;
+        
+        Random random = new Random(1);
+        for(int i = 0; i < Divergence.levels.size(); i++)
+        {
+            Level pristine = Divergence.levels.get(i);
+            if(pristine.player == null) continue;
+            
+            Level level = pristine.copy();
+            DeadlockDetector detector = new DeadlockDetector(level);
+            
+            long pushes = 0, deadlocks = 0, nanos = 0;
+            for(int s = 0; s < steps; s++)
+            {
+                int dx = 0, dy = 0;
+                switch(random.nextInt(4))
+                {
+                    case 0: dx = -1; break;
+                    case 1: dy = -1; break;
+                    case 2: dx = 1; break;
+                    case 3: dy = 1; break;
+                }
+                
+                int x = level.player.x + dx, y = level.player.y + dy;
+                byte target = level.get(x, y);
+                if(Cell.isWall(target)) continue;
+                
+                if(Cell.hasBox(target))
+                {
+                    byte beyond = level.get(x + dx, y + dy);
+                    if(Cell.isWall(beyond) || Cell.hasBox(beyond)) continue;
+                    
+                    level.moveBox(level.index(x, y), level.index(x + dx, y + dy));
+                    
+                    long start = System.nanoTime();
+                    boolean dead = detector.check(level.index(x + dx, y + dy));
+                    nanos += System.nanoTime() - start;
+                    pushes++;
+                    
+                    // Start again once stuck, to keep the boxes moving.
+                    if(dead)
+                    {
+                        deadlocks++;
+                        level.restore(pristine);
+                        continue;
+                    }
+                }
+                
+                level.player = new Point(x, y);
+            }
+            
+            System.out.println("Level " + (i + 1) + ": " + pushes + " pushes, " + deadlocks
+                + " deadlocks, " + (pushes == 0 ? 0 : nanos / pushes) + " ns per check");
+        }
+    }
+    
+    // FIELDS //
+    
+    final Level level;
+    
+    final int width;
+    
+    // Squares from which a box can never reach any goal.
+    final boolean[] dead;
+    
+    // Dead squares only mean a deadlock if every box is needed on a goal.
+    final boolean allNeeded;
+    
+    // Scratch space: squares visited by the current check.
+    final int[] visited, queue;
+    
+    int stamp;
+    
+    boolean offGoal;
+    
+    // CONSTRUCTORS //
+    
+    public DeadlockDetector(Level level)
+    {
+        this.level = level;
+        width = level.width;
+        
+        int size = level.board.length;
+        dead = new boolean[size];
+        visited = new int[size];
+        queue = new int[size];
+        
+        // Pull a box backwards from every goal at once. Any
+        // square it cannot be pulled to is a dead square.
+        int boxes = 0, goals = 0, head = 0, tail = 0;
+        for(int i = 0; i < size; i++)
+        {
+            dead[i] = true;
+            if(Cell.hasBox(level.board[i])) boxes++;
+            if(Cell.isGoal(level.board[i]))
+            {
+                goals++;
+                dead[i] = false;
+                queue[tail++] = i;
+            }
+        }
+        
+        allNeeded = boxes == goals;
+        
+        while(head < tail)
+        {
+            int b = queue[head++], x = b % width, y = b / width;
+            for(int d = 0; d < 4; d++)
+            {
+                int dx = d == 0 ? -1 : d == 2 ? 1 : 0, dy = d == 1 ? -1 : d == 3 ? 1 : 0;
+                if(isWall(x + dx, y + dy) || isWall(x + 2 * dx, y + 2 * dy)) continue;
+                
+                int to = level.index(x + dx, y + dy);
+                if(!dead[to]) continue;
+                
+                dead[to] = false;
+                queue[tail++] = to;
+            }
+        }
+        
+        for(int i = 0; i < size; i++)
+        {
+            if(Cell.isWall(level.board[i])) dead[i] = false;
+        }
+    }
+    
+    // FUNCTIONS //
+    
+    public boolean isDeadSquare(int index)
+    {
+        return allNeeded && dead[index];
+    }
+    
+    // Checks whether the box that was just pushed onto the given
+    // square has made the level unsolvable. Only the box and the
+    // boxes and squares around it are looked at.
+    public boolean check(int index)
+    {
+        if(isDeadSquare(index)) return true;
+        
+        int x = index % width, y = index / width;
+        
+        // Frozen boxes can never move again, so if any of
+        // them is off a goal, the level cannot be completed.
+        stamp++;
+        offGoal = false;
+        if(frozen(x, y) && offGoal) return true;
+        
+        // Look for a corral sealed off behind the box.
+        for(int d = 0; d < 4; d++)
+        {
+            int nx = x + (d == 0 ? -1 : d == 2 ? 1 : 0), ny = y + (d == 1 ? -1 : d == 3 ? 1 : 0);
+            if(sealedCorral(nx, ny)) return true;
+        }
+        
+        return false;
+    }
+    
+    // Checks every box on the board, e.g. after an undo.
+    public boolean scan()
+    {
+        for(int i = 0; i < level.board.length; i++)
+        {
+            if(Cell.hasBox(level.board[i]) && check(i)) return true;
+        }
+        
+        return false;
+    }
+    
+    boolean isWall(int x, int y)
+    {
+        return Cell.isWall(level.get(x, y));
+    }
+    
+    boolean hasBox(int x, int y)
+    {
+        return Cell.hasBox(level.get(x, y));
+    }
+    
+    // A box is frozen when it is blocked both horizontally and vertically.
+    // While a box is being checked, it counts as a wall, so that boxes
+    // blocking each other do not recurse forever.
+    boolean frozen(int x, int y)
+    {
+        int index = level.index(x, y);
+        visited[index] = stamp;
+        
+        boolean frozen = blocked(x, y, 1, 0) && blocked(x, y, 0, 1);
+        if(frozen && !Cell.isGoal(level.board[index])) offGoal = true;
+        
+        return frozen;
+    }
+    
+    boolean blocked(int x, int y, int dx, int dy)
+    {
+        int ax = x - dx, ay = y - dy, bx = x + dx, by = y + dy;
+        if(solid(ax, ay) || solid(bx, by)) return true;
+        
+        // A box between two dead squares can only move onto a dead square.
+        if(allNeeded && dead[level.index(ax, ay)] && dead[level.index(bx, by)]) return true;
+        
+        return hasBox(ax, ay) && frozen(ax, ay) || hasBox(bx, by) && frozen(bx, by);
+    }
+    
+    boolean solid(int x, int y)
+    {
+        return isWall(x, y) || visited[level.index(x, y)] == stamp;
+    }
+    
+    // Floods the empty squares reachable from (x, y) without passing a box.
+    // If the player is not among them, every box on the edge is frozen, and
+    // a goal inside is still empty, then no box can ever reach that goal.
+    boolean sealedCorral(int x, int y)
+    {
+        if(isWall(x, y) || hasBox(x, y)) return false;
+        
+        stamp++;
+        int start = level.index(x, y), player = level.index(level.player), head = 0, tail = 0;
+        boolean emptyGoal = false;
+        visited[start] = stamp;
+        queue[tail++] = start;
+        while(head < tail)
+        {
+            int p = queue[head++];
+            if(p == player || tail > CORRAL_LIMIT) return false;
+            if(Cell.isGoal(level.board[p])) emptyGoal = true;
+            
+            int px = p % width, py = p / width;
+            for(int d = 0; d < 4; d++)
+            {
+                int nx = px + (d == 0 ? -1 : d == 2 ? 1 : 0), ny = py + (d == 1 ? -1 : d == 3 ? 1 : 0);
+                if(isWall(nx, ny)) continue;
+                
+                int q = level.index(nx, ny);
+                if(visited[q] == stamp || hasBox(nx, ny)) continue;
+                
+                visited[q] = stamp;
+                queue[tail++] = q;
+            }
+        }
+        
+        if(!emptyGoal) return false;
+        
+        // Check the edge boxes only after the flood, as the
+        // freeze checks reuse the visited marks with new stamps.
+        int count = tail;
+        int[] region = new int[count];
+        System.arraycopy(queue, 0, region, 0, count);
+        for(int k = 0; k < count; k++)
+        {
+            int px = region[k] % width, py = region[k] / width;
+            for(int d = 0; d < 4; d++)
+            {
+                int nx = px + (d == 0 ? -1 : d == 2 ? 1 : 0), ny = py + (d == 1 ? -1 : d == 3 ? 1 : 0);
+                if(!hasBox(nx, ny)) continue;
+                
+                stamp++;
+                if(!frozen(nx, ny)) return false;
+            }
+        }
+        
+        return true;
+    }
+}
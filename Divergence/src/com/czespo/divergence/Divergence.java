@@ -21,17 +21,23 @@ package com.czespo.divergence;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.util.ArrayList;
-import java.util.Scanner;
+import java.awt.event.KeyListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseListener;
+import java.io.IOException;
 
 import javax.swing.JFrame;
 import javax.swing.JPanel;
+import javax.swing.Timer;
 
-public class Divergence extends JPanel
+public class Divergence extends JPanel implements ActiveCanvas.Painter
 {
     // STATIC //
     
@@ -39,9 +45,33 @@ public class Divergence extends JPanel
     static final int UP = KeyEvent.VK_UP;
     static final int RIGHT = KeyEvent.VK_RIGHT;
     static final int DOWN = KeyEvent.VK_DOWN;
+    static final int KEY_I = KeyEvent.VK_I;
     static final int KEY_R = KeyEvent.VK_R;
+    static final int KEY_Y = KeyEvent.VK_Y;
+    static final int KEY_Z = KeyEvent.VK_Z;
+    static final int KEY_ZOOM_IN = KeyEvent.VK_EQUALS;
+    static final int KEY_ZOOM_OUT = KeyEvent.VK_MINUS;
     
-    static ArrayList<String> levels = new ArrayList<String>();
+    // Directions in the order of their index in a MoveJournal.
+    static final int[] DIRECTIONS = {LEFT, UP, RIGHT, DOWN};
+    
+    // The most frames drawn per second when rendering actively.
+    static final int FRAME_RATE = 60;
+    
+    // Keys pressed per second when playing a replay back at normal speed.
+    static final int PLAYBACK_RATE = 10;
+    
+    // Steps taken per second when walking to a clicked square.
+    static final int WALK_RATE = 20;
+    
+    // The smallest cell a level is laid out with. A level that would
+    // need smaller cells to fit the window scrolls to follow the player
+    // instead. Zooming may go from MIN_ZOOM to MAX_ZOOM.
+    static final int MIN_CELL = 16;
+    static final int MIN_ZOOM = 4;
+    static final int MAX_ZOOM = 128;
+    
+    static LevelPack levels;
     
     public static void main(String[] args)
     {
@@ -52,7 +82,17 @@ public class Divergence extends JPanel
         // Allow a `-w` flag to launch in windowed mode.
         // Can be followed by width and height: `-w 800 600`.
         // Defaults to 800x600.
+        // Allow an `-a` flag to draw actively, through a BufferStrategy,
+        // and an `-f` flag to cap the frames per second: `-a -f 144`.
+        // Allow an `-m` flag to write metrics to a file on exit: `-m metrics.hgrm`.
+        // Allow a `-rec` flag to record the game to a file on exit, and a
+        // `-play` flag to play a recording back, sped up by an `-x` flag:
+        // `-rec game.dvrp`, or `-play game.dvrp -x 4`.
         int width = 800, height = 600;
+        double frameRate = FRAME_RATE;
+        boolean active = false;
+        String metricsPath = null, recordPath = null, playPath = null;
+        double speed = 1;
         for(int i = 0; i < args.length; i++)
         {
             if(args[i].equals("-w"))
@@ -64,6 +104,44 @@ public class Divergence extends JPanel
                     height = Integer.parseInt(args[i + 2]);
                 }
             }
+            else if(args[i].equals("-f") && i + 1 < args.length)
+            {
+                frameRate = Double.parseDouble(args[i + 1]);
+            }
+            else if(args[i].equals("-a"))
+            {
+                active = true;
+            }
+            else if(args[i].equals("-m") && i + 1 < args.length)
+            {
+                metricsPath = args[i + 1];
+            }
+            else if(args[i].equals("-rec") && i + 1 < args.length)
+            {
+                recordPath = args[i + 1];
+            }
+            else if(args[i].equals("-play") && i + 1 < args.length)
+            {
+                playPath = args[i + 1];
+            }
+            else if(args[i].equals("-x") && i + 1 < args.length)
+            {
+                speed = Double.parseDouble(args[i + 1]);
+            }
+        }
+        
+        Replay playback = null;
+        if(playPath != null)
+        {
+            try
+            {
+                playback = Replay.read(playPath);
+            }
+            catch(IOException e)
+            {
+                System.err.println("Error: could not read '" + playPath + "'!");
+                return;
+            }
         }
         
         JFrame frame = new JFrame("Divergence");
@@ -83,49 +161,73 @@ public class Divergence extends JPanel
         frame.setVisible(true);
         
         Divergence divergence = new Divergence(frame.getWidth(), frame.getHeight());
+        if(metricsPath != null) divergence.metrics.writeOnExit(metricsPath);
+        if(recordPath != null) divergence.recordOnExit(recordPath);
         
-        frame.add(divergence);
-        frame.pack();
+        if(active)
+        {
+            // Draw to a canvas instead of the panel, which
+            // then only holds the game and handles keys.
+            ActiveCanvas canvas = new ActiveCanvas(divergence, divergence.paintProbe, frame.getWidth(), frame.getHeight());
+            canvas.setBackground(Color.BLACK);
+            for(KeyListener listener : divergence.getKeyListeners()) canvas.addKeyListener(listener);
+            for(MouseListener listener : divergence.getMouseListeners()) canvas.addMouseListener(listener);
+            
+            frame.add(canvas);
+            frame.pack();
+            
+            divergence.canvas = canvas;
+            canvas.requestFocus();
+            canvas.start(frameRate);
+        }
+        else
+        {
+            frame.add(divergence);
+            frame.pack();
+            
+            // Request focus, so that the panel may receive key events.
+            divergence.requestFocus();
+        }
         
-        // Request focus, so that the panel may receive key events.
-        divergence.requestFocus();
+        if(playback != null) divergence.play(playback, PLAYBACK_RATE * speed);
     }
     
     public static boolean initLevels()
     {
-        // Load definition strings of Divergence
-        // levels from the level file.
+        return initLevels("levels");
+    }
+    
+    public static boolean initLevels(String path)
+    {
+        // Index the levels in the level file.
+        // Each level is only parsed when it is played.
         try
         {
-            Scanner levelFile = new Scanner(new File("levels"));
-            
-            String level = "";
-            while(levelFile.hasNextLine())
-            {
-                String line = levelFile.nextLine();
-                if(line.equals(","))
-                {
-                    levels.add(level.substring(0, level.length() - 1));
-                    level = "";
-                }
-                else
-                {
-                    level += line + "|";
-                }
-            }
-
-            levelFile.close();
+            levels = LevelPack.open(path);
 
             return true;
         }
-        catch(FileNotFoundException e)
+        catch(IOException e)
         {
-            System.err.println("Error: could not open 'levels'!");
+            System.err.println("Error: could not open '" + path + "'!");
             
             return false;
         }
     }
     
+    public static int directionIndex(int direction)
+    {
+        switch(direction)
+        {
+            case LEFT: return 0;
+            case UP: return 1;
+            case RIGHT: return 2;
+            case DOWN: return 3;
+        }
+        
+        return -1;
+    }
+    
     public static Point move(int direction, Point src)
     {
         switch(direction)
@@ -151,6 +253,57 @@ public class Divergence extends JPanel
     
     Level currentLevel;
     
+    // The current level as it was loaded, so that
+    // it can be restarted without parsing it again.
+    Level pristine;
+    
+    MoveJournal journal = new MoveJournal();
+    
+    // Walls and goals of the current level, drawn at the
+    // current cell size, a chunk at a time as they come into view.
+    ChunkCache chunks = new ChunkCache();
+    
+    TileCache tiles = new TileCache();
+    
+    // Boxes of the current level not on goals, and on goals, while drawing.
+    int[] looseBoxes = new int[0], onGoalBoxes = new int[0];
+    
+    DeadlockDetector detector;
+    
+    // Which squares the player can walk to, labelled once and kept
+    // until a box moves. Paths to them are searched for per click.
+    Reachability reach = new Reachability();
+    
+    // Takes the steps to a clicked square, or null when not walking.
+    Timer walk;
+    
+    // Whether the current position can no longer be solved.
+    boolean deadlocked;
+    
+    // Draws frames when rendering actively, or null when drawing through Swing.
+    ActiveCanvas canvas;
+    
+    // Measures drawing and moving, and is drawn over
+    // the level while switched on with `I`.
+    Metrics metrics = new Metrics();
+    
+    Metrics.Probe paintProbe = metrics.probe("paint"), updateProbe = metrics.probe("update");
+    
+    boolean overlay;
+    
+    KeyHandler keys = new KeyHandler();
+    
+    // Records each key that changes the game, or null when not recording.
+    volatile Replay recording;
+    
+    // Presses keys as they were recorded, or null when not playing back.
+    // The player takes over once the recording ends.
+    volatile Replay playback;
+    
+    // Set once the game should end. It ends once the lock on it is let
+    // go, as the shutdown hook that writes a recording takes the lock.
+    volatile boolean quitting;
+    
     // CONSTUCTORS //
     
     public Divergence(int width, int height)
@@ -160,12 +313,13 @@ public class Divergence extends JPanel
         wHeight = height;
         
         // Load first level.
-        currentLevel = loadLevel(levels.get(levelNum));
+        startLevel();
         
         this.setFocusable(true);
         this.setBackground(Color.BLACK);
         
-        this.addKeyListener(new KeyHandler());
+        this.addKeyListener(keys);
+        this.addMouseListener(new MouseHandler());
         
         this.setBounds(0, 0, width, height);
         this.setPreferredSize(new Dimension(width, height));
@@ -180,7 +334,32 @@ public class Divergence extends JPanel
         @Override
         public void keyPressed(KeyEvent e)
         {
-            int key = e.getKeyCode();
+            // Keys that would change the game wait
+            // until a replay has finished playing.
+            if(playback != null && Replay.op(e.getKeyCode()) >= 0) return;
+            
+            // The renderer may be drawing the level on
+            // another thread, so change it under the lock.
+            synchronized(Divergence.this)
+            {
+                // Keys that would change the game stop a walk to a clicked square.
+                if(Replay.op(e.getKeyCode()) >= 0) stopWalking();
+                
+                handleKey(e.getKeyCode());
+                
+                // Only changed cells are repainted, so
+                // repaint the overlay's figures as well.
+                if(overlay && canvas == null) repaint(metrics.getOverlayBounds());
+            }
+            
+            exitIfQuitting();
+        }
+        
+        private void handleKey(int key)
+        {
+            Replay recording = Divergence.this.recording;
+            if(recording != null) recording.record(key);
+            
             switch(key)
             {
                 case LEFT:
@@ -189,171 +368,590 @@ public class Divergence extends JPanel
                 case DOWN:
                     // Move the player, if possible.
                     // If level is complete, load the next one.
-                    if(update(key))
-                    {
-                        if(++levelNum < levels.size())
-                        {
-                            currentLevel = loadLevel(levels.get(levelNum));
-                        }
-                        else
-                        {
-                            System.out.println("All levels completed.");
-                            System.exit(0);
-                        }
-                    }
+                    updateProbe.begin();
+                    boolean complete = update(key);
+                    updateProbe.end();
+                    
+                    if(complete) nextLevel();
                     break;
                     
                 case KEY_R:
                     // Restart the current level.
-                    currentLevel = loadLevel(levels.get(levelNum));
+                    restart();
+                    break;
+                    
+                case KEY_ZOOM_IN:
+                case KeyEvent.VK_ADD:
+                    zoom(cell * 2);
+                    break;
+                    
+                case KEY_ZOOM_OUT:
+                case KeyEvent.VK_SUBTRACT:
+                    zoom(cell / 2);
+                    break;
+                    
+                case KEY_I:
+                    // Show or hide the metrics.
+                    overlay = !overlay;
+                    repaint();
+                    break;
+                    
+                case KEY_Z:
+                    // Take back the last move.
+                    undo();
+                    break;
+                    
+                case KEY_Y:
+                    // Play the last move taken back again.
+                    if(redo()) nextLevel();
                     break;
                 
                 case KeyEvent.VK_ESCAPE:
-                    System.exit(0);
+                    System.out.println(metrics);
+                    quitting = true;
             }
         }
     }
     
+    private class MouseHandler extends MouseAdapter
+    {
+        @Override
+        public void mousePressed(MouseEvent e)
+        {
+            if(e.getButton() == MouseEvent.BUTTON1) click(e.getX(), e.getY());
+        }
+    }
+    
     // METHODS //
     
     @Override
     public void paintComponent(Graphics g)
     {
+        paintProbe.begin();
+        
         super.paintComponent(g);
+        draw(g);
         
+        paintProbe.end();
+    }
+    
+    @Override
+    public synchronized void draw(Graphics g)
+    {
         // Do drawing.
+        if(cell == 0) return;
+        
+        // Only the cells in view, and within the damaged region, are drawn.
+        int x0 = Math.max(0, -xp / cell), y0 = Math.max(0, -yp / cell);
+        int x1 = Math.min(currentLevel.width - 1, (wWidth - 1 - xp) / cell);
+        int y1 = Math.min(currentLevel.height - 1, (wHeight - 1 - yp) / cell);
+        Rectangle clip = g.getClipBounds();
+        if(clip != null)
+        {
+            x0 = Math.max(x0, (clip.x - xp) / cell);
+            y0 = Math.max(y0, (clip.y - yp) / cell);
+            x1 = Math.min(x1, (clip.x + clip.width - xp) / cell);
+            y1 = Math.min(y1, (clip.y + clip.height - yp) / cell);
+        }
+        
+        if(x0 > x1 || y0 > y1)
+        {
+            if(overlay) metrics.drawOverlay(g, 4, 4);
+            return;
+        }
+        
+        // Walls and goals never change, so they are drawn from cached chunks.
+        chunks.draw(g, x0, y0, x1, y1, xp, yp);
 
-        // Used to draw goals, which need to be comparatively smaller than boxes.
-        int quarter = cell / 4;
+        // Sort the boxes by tile, then draw each kind in one batch.
+        byte[] board = currentLevel.board;
+        int loose = 0, placed = 0;
+        for(int y = y0; y <= y1; y++)
+        {
+            int i = y * currentLevel.width + x0;
+            for(int x = x0; x <= x1; x++, i++)
+            {
+                byte c = board[i];
+                if(!Cell.hasBox(c)) continue;
+                
+                if(Cell.isGoal(c)) onGoalBoxes[placed++] = i;
+                else looseBoxes[loose++] = i;
+            }
+        }
+        
+        // If the box is on a goal, draw it in green to differentiate
+        // it from other boxes. Once the level is deadlocked, boxes
+        // off goals are drawn in orange as a hint.
+        drawTiles(g, tiles.get(deadlocked ? TileCache.BOX_DEADLOCKED : TileCache.BOX), looseBoxes, loose);
+        drawTiles(g, tiles.get(TileCache.BOX_ON_GOAL), onGoalBoxes, placed);
 
-        for(int y = 0; y < currentLevel.height; y++)
+        // Draw the player.
+        g.drawImage(tiles.get(TileCache.PLAYER), currentLevel.player.x * cell + xp, currentLevel.player.y * cell + yp, null);
+        
+        if(overlay) metrics.drawOverlay(g, 4, 4);
+    }
+    
+    private void drawTiles(Graphics g, Image tile, int[] cells, int count)
+    {
+        int width = currentLevel.width;
+        for(int k = 0; k < count; k++)
+        {
+            g.drawImage(tile, cells[k] % width * cell + xp, cells[k] / width * cell + yp, null);
+        }
+    }
+    
+    public void renderBackground(Level level)
+    {
+        // Redraw the tiles if the cell size has changed.
+        tiles.update(cell);
+        
+        // Scratch space for sorting the boxes by tile when drawing.
+        int boxes = 0;
+        for(byte c : level.board) if(Cell.hasBox(c)) boxes++;
+        
+        looseBoxes = new int[boxes];
+        onGoalBoxes = new int[boxes];
+        
+        // The parts of a level that never change are
+        // drawn into chunks, once they come into view.
+        chunks.reset(level, tiles, cell);
+    }
+    
+    public void repaintCell(Point p)
+    {
+        // Request drawing of a single cell.
+        this.repaint(p.x * cell + xp, p.y * cell + yp, cell, cell);
+    }
+    
+    // FUNCTIONS //
+    
+    public void startLevel()
+    {
+        startLevel(levels.get(levelNum));
+    }
+    
+    // Plays a level from its start. The level itself is kept
+    // as it is, to restart from, and a copy of it is played.
+    public void startLevel(Level level)
+    {
+        pristine = level;
+        currentLevel = loadLevel(pristine.copy());
+        journal.clear();
+        
+        detector = new DeadlockDetector(currentLevel);
+        deadlocked = false;
+        
+        reach.reset(currentLevel);
+    }
+    
+    // Presses a key, as if it came from the keyboard.
+    public synchronized void press(int key)
+    {
+        keys.handleKey(key);
+    }
+    
+    // Records the game from the current level's start, and writes
+    // it to a file when the game exits, however it exits.
+    public synchronized void recordOnExit(final String path)
+    {
+        // Only whole games can be played back.
+        if(journal.size() > 0) throw new IllegalStateException("The level has already started.");
+        
+        recording = new Replay(levelNum, pristine.hash());
+        
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable()
         {
-            for(int x = 0; x < currentLevel.map.get(y).size(); x++)
+            @Override
+            public void run()
             {
-                if(currentLevel.get(x, y).type == Cell.FLOOR)
+                synchronized(Divergence.this)
                 {
-                    if(currentLevel.get(x, y).hasBox)
-                    {
-                        // Determine what colour the box should be.
-                        // If the box is on a goal, draw it in green
-                        // to differentiate it from other boxes.
-                        if(currentLevel.get(x, y).isGoal)
-                        {
-                            g.setColor(Color.GREEN);
-                        }
-                        else
-                        {
-                            g.setColor(Color.RED);
-                        }
-
-                        // Draw the boxes.
-                        g.fillRect(x * cell + xp, y * cell + yp, cell - 1, cell - 1);
-                    }
-                    else if(currentLevel.get(x, y).isGoal)
+                    recording.finish(Divergence.this);
+                }
+                
+                try
+                {
+                    recording.write(path);
+                }
+                catch(IOException e)
+                {
+                    System.err.println("Unable to write the replay to " + path + ": " + e.getMessage());
+                }
+            }
+        }));
+    }
+    
+    // Plays a recording back, pressing its keys at a steady rate.
+    public void play(final Replay replay, double keysPerSecond)
+    {
+        synchronized(this)
+        {
+            playback = replay;
+            if(!replay.start(this))
+            {
+                System.out.println("Replay was recorded on other levels.");
+                playback = null;
+                return;
+            }
+            
+            this.repaint();
+        }
+        
+        final Timer timer = new Timer((int) Math.max(1, 1000 / keysPerSecond), null);
+        timer.addActionListener(new ActionListener()
+        {
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                synchronized(Divergence.this)
+                {
+                    int key = replay.nextKey();
+                    if(key != -1)
                     {
-                        // Draw the goals.
-                        g.setColor(Color.RED);
-                        g.fillRect(x * cell + quarter + xp, y * cell + quarter + yp, cell - quarter * 2 - 1, cell - quarter * 2 - 1);
+                        press(key);
+                        return;
                     }
+                    
+                    timer.stop();
+                    playback = null;
+                    System.out.println("Replay " + (replay.matches(Divergence.this) ? "matches" : "does not match") + " its recording.");
                 }
-                else
+            }
+        });
+        
+        timer.start();
+    }
+    
+    // Walks the player to a clicked square, by the shortest way round the
+    // boxes, or to beside a clicked box and pushes it one square. The steps
+    // are pressed as keys, so they are undone and recorded like any others.
+    public synchronized void click(int x, int y)
+    {
+        if(playback != null || cell == 0) return;
+        
+        int cx = Math.floorDiv(x - xp, cell), cy = Math.floorDiv(y - yp, cell);
+        if(!currentLevel.inBounds(cx, cy)) return;
+        
+        int square = currentLevel.index(cx, cy);
+        int[] path = Cell.hasBox(currentLevel.board[square]) ? reach.pushPath(square) : reach.path(square);
+        if(path == null || path.length == 0) return;
+        
+        walk(path, WALK_RATE);
+    }
+    
+    // Takes steps, given as direction indices, at a steady rate. Stops
+    // early if a step goes nowhere, or the level is left or restarted.
+    public synchronized void walk(final int[] path, double stepsPerSecond)
+    {
+        stopWalking();
+        
+        final Level level = currentLevel;
+        final int moves = journal.size();
+        final Timer timer = new Timer((int) Math.max(1, 1000 / stepsPerSecond), null);
+        timer.addActionListener(new ActionListener()
+        {
+            int next = 0;
+            
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                synchronized(Divergence.this)
                 {
-                    // Draw the walls.
-                    g.setColor(Color.WHITE);
-                    g.fillRect(x * cell + xp, y * cell + yp, cell - 1, cell - 1);
+                    if(walk != timer) return;
+                    
+                    boolean more = false;
+                    if(next < path.length && currentLevel == level && journal.size() == moves + next)
+                    {
+                        press(DIRECTIONS[path[next++]]);
+                        more = next < path.length;
+                    }
+                    
+                    if(!more) stopWalking();
                 }
+                
+                exitIfQuitting();
             }
+        });
+        
+        walk = timer;
+        timer.setInitialDelay(0);
+        timer.start();
+    }
+    
+    public synchronized void stopWalking()
+    {
+        if(walk == null) return;
+        
+        walk.stop();
+        walk = null;
+    }
+    
+    public void nextLevel()
+    {
+        if(++levelNum < levels.size())
+        {
+            startLevel();
+            this.repaint();
+        }
+        else if(playback == null)
+        {
+            System.out.println("All levels completed.");
+            quitting = true;
         }
-
-        // Draw the player.
-        g.setColor(Color.BLUE);
-        g.fillRect(currentLevel.player.x * cell + xp, currentLevel.player.y * cell + yp, cell - 1, cell - 1);
     }
     
-    // FUNCTIONS //
+    // Ends the game if it should end. Must not be called while holding
+    // the lock on the game, or the shutdown hooks would wait on it forever.
+    void exitIfQuitting()
+    {
+        if(quitting) System.exit(0);
+    }
+    
+    public void restart()
+    {
+        // Copy the pristine board back over the current one.
+        currentLevel.restore(pristine);
+        journal.clear();
+        deadlocked = false;
+        reach.invalidate();
+        
+        centre(currentLevel);
+        this.repaint();
+    }
+    
+    public void undo()
+    {
+        int entry = journal.undo();
+        if(entry == -1) return;
+        
+        // Step the player back, pulling the box
+        // along behind if the move pushed one.
+        int direction = DIRECTIONS[entry & 3];
+        Point player = currentLevel.player;
+        if((entry & MoveJournal.PUSH) != 0)
+        {
+            Point box = move(direction, player);
+            currentLevel.moveBox(currentLevel.index(box), currentLevel.index(player));
+            reach.invalidate();
+            repaintCell(box);
+        }
+        
+        // Opposite directions are two indices apart.
+        currentLevel.player = move(DIRECTIONS[(entry + 2) & 3], player);
+        repaintCell(player);
+        repaintCell(currentLevel.player);
+        if(follow(currentLevel.player)) this.repaint();
+        
+        // The deadlock may have come from an earlier push.
+        // If it is gone, every box changes colour.
+        if(deadlocked && !(deadlocked = detector.scan())) this.repaint();
+    }
+    
+    public boolean redo()
+    {
+        int entry = journal.redo();
+        if(entry == -1) return false;
+        
+        // Replay the move as it was recorded.
+        int direction = DIRECTIONS[entry & 3];
+        Point dest = move(direction, currentLevel.player);
+        if((entry & MoveJournal.PUSH) != 0)
+        {
+            Point box = move(direction, dest);
+            currentLevel.moveBox(currentLevel.index(dest), currentLevel.index(box));
+            reach.invalidate();
+            repaintCell(box);
+            
+            if(!deadlocked && detector.check(currentLevel.index(box)))
+            {
+                deadlocked = true;
+                this.repaint();
+            }
+        }
+        
+        repaintCell(currentLevel.player);
+        repaintCell(dest);
+        currentLevel.player = dest;
+        if(follow(dest)) this.repaint();
+        
+        return (entry & MoveJournal.PUSH) != 0 && currentLevel.goals == 0;
+    }
+    
+    public boolean isDeadlocked()
+    {
+        return deadlocked;
+    }
+    
+    public Level loadLevel(Level level)
+    {
+        // Determine cell size based on board and window dimensions.
+        // Allows the drawn board to scale to the window size, but
+        // not below a readable size, past which the view scrolls.
+        cell = Math.max(MIN_CELL, Math.min(wWidth / level.width, wHeight / level.height));
+        
+        centre(level);
+        renderBackground(level);
+        
+        return level;
+    }
+    
+    // Determines the x and y padding, which are used to centre the level
+    // within the window, or, for a level larger than the window, to
+    // scroll it so that the player is in the middle of the view.
+    void centre(Level level)
+    {
+        xp = (wWidth - (cell * level.width)) / 2;
+        yp = (wHeight - (cell * level.height)) / 2;
+        
+        if(level.player == null) return;
+        
+        if(xp < 0) xp = Math.max(wWidth - cell * level.width, Math.min(0, wWidth / 2 - level.player.x * cell - cell / 2));
+        if(yp < 0) yp = Math.max(wHeight - cell * level.height, Math.min(0, wHeight / 2 - level.player.y * cell - cell / 2));
+    }
+    
+    // Scrolls a level larger than the window, if need be, to keep the
+    // player a quarter of the view away from its edges. Returns whether
+    // the view moved, in which case all of it needs drawing again.
+    boolean follow(Point player)
+    {
+        int oldXp = xp, oldYp = yp;
+        if(cell * currentLevel.width > wWidth)
+        {
+            xp = scroll(xp, player.x * cell, wWidth, cell * currentLevel.width);
+        }
+        
+        if(cell * currentLevel.height > wHeight)
+        {
+            yp = scroll(yp, player.y * cell, wHeight, cell * currentLevel.height);
+        }
+        
+        return xp != oldXp || yp != oldYp;
+    }
+    
+    private int scroll(int offset, int at, int view, int extent)
+    {
+        int margin = view / 4;
+        if(at + offset < margin) offset = margin - at;
+        else if(at + cell + offset > view - margin) offset = view - margin - at - cell;
+        
+        return Math.max(view - extent, Math.min(0, offset));
+    }
+    
+    // Draws the level with another cell size,
+    // keeping the player in the middle of the view.
+    public void zoom(int size)
+    {
+        size = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, size));
+        if(size == cell) return;
+        
+        cell = size;
+        centre(currentLevel);
+        renderBackground(currentLevel);
+        
+        this.repaint();
+    }
+    
+    // Returns the width and height of the level a definition string
+    // describes: its widest row, and how many rows it has.
+    static int[] measureLevel(String definition)
+    {
+        int width = 0, height = 1, x = 0;
+        for(int i = 0; i < definition.length(); i++)
+        {
+            if(definition.charAt(i) == '|')
+            {
+                if(x > width) width = x;
+                
+                height++;
+                x = 0;
+            }
+            else
+            {
+                x++;
+            }
+        }
+        
+        if(x > width) width = x;
+        
+        return new int[] {width, height};
+    }
     
-    public Level loadLevel(String definition)
+    public static Level parseLevel(String definition)
     {
+        // Measure the level first, so that the
+        // board can be allocated in one go.
+        int[] size = measureLevel(definition);
+        int width = size[0], height = size[1];
+        
         // Create a Divergence level from a definition string.
-        Level level = new Level();
-        level.map.add(new ArrayList<Cell>());
+        // Rows shorter than the widest row are padded with empty floor.
+        Level level = new Level(width, height);
+        byte[] board = level.board;
 
-        int width = 0, height = 0, x = 0;
+        int x = 0, y = 0;
         for(int i = 0; i < definition.length(); i++)
         {
+            int index = y * width + x;
             switch(definition.charAt(i))
             {
                 case '.': // Goal.
-                    level.map.get(height).add(new Cell(Cell.FLOOR, true, false));
+                    board[index] = Cell.GOAL;
                     level.goals++;
                     break;
 
                 case '$': // Box.
-                    level.map.get(height).add(new Cell(Cell.FLOOR, false, true));
+                    board[index] = Cell.BOX;
                     break;
 
                 case '*': // Box over goal.
-                    level.map.get(height).add(new Cell(Cell.FLOOR, true, true));
+                    board[index] = Cell.GOAL | Cell.BOX;
                     break;
 
                 case '#': // Wall.
-                    level.map.get(height).add(new Cell(Cell.WALL, false, false));
+                    board[index] = Cell.WALL;
                     break;
 
                 case '@': // Player.
-                    level.player = new Point(x, height);
-                    level.map.get(height).add(new Cell(Cell.FLOOR, false, false));
+                    level.player = new Point(x, y);
                     break;
                     
                 case '&': // Player over a goal.
-                    level.player = new Point(x, height);
-                    level.map.get(height).add(new Cell(Cell.FLOOR, true, false));
+                    level.player = new Point(x, y);
+                    board[index] = Cell.GOAL;
                     level.goals++;
                     break;
 
                 case '|': // Start a new row.
-                    height++;
-                    if(x > width) width = x;
-
+                    y++;
                     x = -1;
-                    level.map.add(new ArrayList<Cell>());
                     break;
 
                 default: // Empty floor.
-                    level.map.get(height).add(new Cell(Cell.FLOOR, false, false));
                     break;
             }
 
             x++;
         }
         
-        level.width = width;
-        level.height = ++height;
-        
-        // Determine cell size based on board and window dimensions.
-        // Allows the drawn board to scale to the window size.
-        cell = Math.min(wWidth / width, wHeight / height);
-
-        // Determine x and y padding, which are
-        // used to centre the level within the window.
-        xp = (wWidth - (cell * width)) / 2;
-        yp = (wHeight - (cell * height)) / 2;
-        
         return level;
     }
 
     public boolean update(int direction)
     {
         Point dest = move(direction, currentLevel.player);
-        if(currentLevel.get(dest).type != Cell.WALL)
+        byte target = currentLevel.get(dest);
+        if(!Cell.isWall(target))
         {
             // If the player moves into a box, we try to push that box.
-            if(currentLevel.get(dest).hasBox && moveBox(direction, dest))
+            if(Cell.hasBox(target) && moveBox(direction, dest))
             {
-                currentLevel.player = dest;
+                // Request drawing of the cells the player left and entered.
+                repaintCell(currentLevel.player);
+                repaintCell(dest);
                 
-                // Request drawing.
-                this.repaint();
+                currentLevel.player = dest;
+                journal.record(directionIndex(direction), true);
+                if(follow(dest)) this.repaint();
 
                 // Check if the level has been completed.
                 if(currentLevel.goals == 0)
@@ -361,12 +959,15 @@ public class Divergence extends JPanel
                     return true;
                 }
             }
-            else if(!currentLevel.get(dest).hasBox)
+            else if(!Cell.hasBox(target))
             {
+                // Request drawing of the cells the player left and entered.
+                repaintCell(currentLevel.player);
+                repaintCell(dest);
+                
                 currentLevel.player = dest;
-
-                // Request drawing.
-                this.repaint();
+                journal.record(directionIndex(direction), false);
+                if(follow(dest)) this.repaint();
             }
         }
 
@@ -378,16 +979,20 @@ public class Divergence extends JPanel
         // We move the box if the destination does not
         // contain a wall or another box.
         Point dest = move(direction, src);
-        if(currentLevel.get(dest).type != Cell.WALL && !currentLevel.get(dest).hasBox)
+        byte target = currentLevel.get(dest);
+        if(!Cell.isWall(target) && !Cell.hasBox(target))
         {
-            currentLevel.get(src).hasBox = false;
-            currentLevel.get(dest).hasBox = true;
-
-            // Increment remaining goals if the box was pushed off a goal.
-            if(currentLevel.get(src).isGoal) currentLevel.goals++;
-
-            // Decrement remaining goals if the box was pushed onto a goal.
-            if(currentLevel.get(dest).isGoal) currentLevel.goals--;
+            currentLevel.moveBox(currentLevel.index(src), currentLevel.index(dest));
+            reach.invalidate();
+            repaintCell(dest);
+            
+            // Look for a deadlock around the box that moved.
+            // If one is found, every box changes colour.
+            if(!deadlocked && detector.check(currentLevel.index(dest)))
+            {
+                deadlocked = true;
+                this.repaint();
+            }
 
             return true;
         }
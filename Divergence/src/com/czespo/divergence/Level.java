@@ -18,8 +18,6 @@
 
 package com.czespo.divergence;
 
-import java.util.ArrayList;
-
 public class Level
 {   
     // FIELDS //
@@ -30,17 +28,121 @@ public class Level
     
     public Point player;
     
-    public ArrayList<ArrayList<Cell>> map = new ArrayList<ArrayList<Cell>>();
+    // The board is stored row by row in a flat array, so the
+    // square at (x, y) lives at index `y * width + x`.
+    // See Cell for the meaning of each bit.
+    public byte[] board;
+    
+    // CONSTRUCTORS //
+    
+    public Level(int width, int height)
+    {
+        this.width = width;
+        this.height = height;
+        
+        board = new byte[width * height];
+    }
     
     // FUNCTIONS //
     
-    public Cell get(int x, int y)
+    public int index(int x, int y)
+    {
+        return y * width + x;
+    }
+    
+    public int index(Point p)
+    {
+        return p.y * width + p.x;
+    }
+    
+    public boolean inBounds(int x, int y)
+    {
+        return x >= 0 && y >= 0 && x < width && y < height;
+    }
+    
+    public byte get(int x, int y)
+    {
+        // Anything outside the board is treated as a wall,
+        // so callers never need to bounds check themselves.
+        if(!inBounds(x, y)) return Cell.WALL;
+        
+        return board[y * width + x];
+    }
+    
+    public byte get(Point p)
+    {
+        return get(p.x, p.y);
+    }
+    
+    public Level copy()
+    {
+        Level level = new Level(width, height);
+        level.restore(this);
+        
+        return level;
+    }
+    
+    // Makes this level match another of the same size,
+    // without allocating a new board.
+    public void restore(Level from)
+    {
+        System.arraycopy(from.board, 0, board, 0, board.length);
+        goals = from.goals;
+        player = from.player == null ? null : new Point(from.player.x, from.player.y);
+    }
+    
+    // Writes the level back out as a definition string,
+    // in the format read by Divergence.parseLevel.
+    public String toDefinition()
+    {
+        StringBuilder definition = new StringBuilder((width + 1) * height);
+        for(int y = 0; y < height; y++)
+        {
+            if(y > 0) definition.append('|');
+            
+            for(int x = 0; x < width; x++)
+            {
+                byte c = board[y * width + x];
+                boolean player = this.player != null && this.player.x == x && this.player.y == y;
+                if(Cell.isWall(c)) definition.append('#');
+                else if(player) definition.append(Cell.isGoal(c) ? '&' : '@');
+                else if(Cell.hasBox(c)) definition.append(Cell.isGoal(c) ? '*' : '$');
+                else if(Cell.isGoal(c)) definition.append('.');
+                else definition.append(' ');
+            }
+        }
+        
+        return definition.toString();
+    }
+    
+    // A hash of the board and the player's position, which Replay
+    // compares to check that a game played out the same way twice.
+    public long hash()
     {
-        return map.get(y).get(x);
+        long hash = 0xcbf29ce484222325L;
+        for(byte c : board)
+        {
+            hash = (hash ^ c) * 0x100000001b3L;
+        }
+        
+        if(player != null)
+        {
+            hash = (hash ^ player.x) * 0x100000001b3L;
+            hash = (hash ^ player.y) * 0x100000001b3L;
+        }
+        
+        return hash;
     }
     
-    public Cell get(Point p)
+    public void moveBox(int src, int dest)
     {
-        return map.get(p.y).get(p.x);
+        board[src] &= ~Cell.BOX;
+        board[dest] |= Cell.BOX;
+        
+        // Increment remaining goals if the box was pushed off a goal.
+        if((board[src] & Cell.GOAL) != 0) goals++;
+        
+        // Decrement remaining goals if the box was pushed onto a goal.
+        if((board[dest] & Cell.GOAL) != 0) goals--;
     }
 }
@@ -0,0 +1,64 @@
+/**
+ *  Divergence (a Sokoban (or Sokouban if you're a purist) clone)
+ *  Copyright (C) 2020 Czespo
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.czespo.divergence;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+public class LevelCompiler
+{
+    // STATIC //
+    
+    public static void main(String[] args)
+    {
+        // Convert a text level file into a compiled pack,
+        // which Divergence can load in place of the text file:
+        // `LevelCompiler levels levels.dvpk`.
+        if(args.length != 2)
+        {
+            System.err.println("Usage: LevelCompiler <levels> <output>");
+            return;
+        }
+        
+        try
+        {
+            long start = System.currentTimeMillis();
+            LevelPack pack = LevelPack.open(args[0]);
+            
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(args[1]));
+            try
+            {
+                pack.compile(out);
+            }
+            finally
+            {
+                out.close();
+            }
+            
+            System.out.println("Compiled " + pack.size() + " levels in "
+                + (System.currentTimeMillis() - start) + " ms.");
+        }
+        catch(IOException e)
+        {
+            System.err.println("Error: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,496 @@
+/**
+ *  Divergence (a Sokoban (or Sokouban if you're a purist) clone)
+ *  Copyright (C) 2020 Czespo
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.czespo.divergence;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Makes new levels. Each candidate is a room with walls scattered through
+// it, whose boxes start on their goals and are pulled away from them, so
+// every candidate can be solved by pushing the boxes back. Candidates are
+// then solved optimally, and kept if they are hard enough, but not too hard.
+public class LevelGenerator
+{
+    // STATIC //
+    
+    // Squares are walled at random with this chance, before
+    // all but the largest open area is walled off as well.
+    static final double WALL_CHANCE = 0.2;
+    
+    // Candidates made for each level asked for, at most, by default.
+    // A difficulty out of reach for the room would otherwise never end.
+    static final long CANDIDATES_PER_LEVEL = 1000;
+    
+    public static void main(String[] args)
+    {
+        // Generate levels and write them in the level file format.
+        // Allow a `-c` flag to set how many levels to make, an `-s` flag
+        // to set the size of the rooms, walls included, a `-b` flag to set
+        // the number of boxes, and a `-d` flag to set the difficulty aimed
+        // for: `-c 1000 -s 10 8 -b 3 -d 20`. Allow an `-n` flag to set the
+        // number of threads, a `-t` flag to limit the time spent solving
+        // each candidate, in seconds, an `-r` flag to set the seed, an `-m`
+        // flag to limit how many candidates are made in all (by default, a
+        // thousand for each level asked for), and an `-o` flag to write to
+        // a file instead of printing the levels.
+        long maxCandidates = 0;
+        int count = 100, width = 10, height = 8, boxes = 3, threads = Runtime.getRuntime().availableProcessors();
+        double difficulty = 20, timeLimit = 1;
+        long seed = 1;
+        String path = null;
+        for(int i = 0; i < args.length; i++)
+        {
+            if(args[i].equals("-c") && i + 1 < args.length) count = Integer.parseInt(args[i + 1]);
+            else if(args[i].equals("-b") && i + 1 < args.length) boxes = Integer.parseInt(args[i + 1]);
+            else if(args[i].equals("-d") && i + 1 < args.length) difficulty = Double.parseDouble(args[i + 1]);
+            else if(args[i].equals("-n") && i + 1 < args.length) threads = Integer.parseInt(args[i + 1]);
+            else if(args[i].equals("-t") && i + 1 < args.length) timeLimit = Double.parseDouble(args[i + 1]);
+            else if(args[i].equals("-r") && i + 1 < args.length) seed = Long.parseLong(args[i + 1]);
+            else if(args[i].equals("-m") && i + 1 < args.length) maxCandidates = Long.parseLong(args[i + 1]);
+            else if(args[i].equals("-o") && i + 1 < args.length) path = args[i + 1];
+            else if(args[i].equals("-s") && i + 2 < args.length)
+            {
+                width = Integer.parseInt(args[i + 1]);
+                height = Integer.parseInt(args[i + 2]);
+            }
+        }
+        
+        LevelGenerator generator = new LevelGenerator(width, height, boxes, difficulty);
+        generator.timeLimit = (long) (timeLimit * 1000);
+        generator.maxCandidates = maxCandidates > 0 ? maxCandidates : count * CANDIDATES_PER_LEVEL;
+        
+        long start = System.currentTimeMillis();
+        List<Candidate> levels = generator.generate(count, threads, seed);
+        long millis = Math.max(1, System.currentTimeMillis() - start);
+        
+        try
+        {
+            PrintStream out = path == null ? System.out : new PrintStream(new FileOutputStream(path));
+            for(Candidate candidate : levels) out.print(candidate.toText());
+            if(out != System.out) out.close();
+        }
+        catch(IOException e)
+        {
+            System.err.println("Error: could not write '" + path + "'!");
+            return;
+        }
+        
+        double pushes = 0, branching = 0;
+        for(Candidate candidate : levels)
+        {
+            pushes += candidate.pushes;
+            branching += candidate.branching;
+        }
+        
+        System.err.printf("%d of %d levels from %d candidates in %d ms, %.0f levels/min, mean %.1f pushes, branching %.2f%n",
+            levels.size(), count, generator.candidates.get(), millis, levels.size() * 60000.0 / millis,
+            pushes / Math.max(1, levels.size()), branching / Math.max(1, levels.size()));
+        
+        if(levels.size() < count)
+        {
+            System.err.println("Ran out of candidates: the difficulty may be out of reach for rooms this size, "
+                + "or more candidates may be allowed with `-m`.");
+        }
+    }
+    
+    // INNER CLASSES //
+    
+    // A generated level, with what solving it showed of its difficulty.
+    public static class Candidate
+    {
+        public final Level level;
+        
+        // Pushes in an optimal solution, and the solver's effective branching
+        // factor: the number of children per node that would give a tree
+        // of as many nodes as were expanded, as deep as the solution.
+        public final int pushes;
+        
+        public final double branching;
+        
+        Candidate(Level level, Solver.Result result)
+        {
+            this.level = level;
+            pushes = result.pushes;
+            branching = result.pushes == 0 ? 1 : Math.pow(Math.max(1, result.nodes), 1.0 / result.pushes);
+        }
+        
+        // Long solutions are harder, all the more so when
+        // there are many ways to go wrong along the way.
+        public double difficulty()
+        {
+            return pushes * branching;
+        }
+        
+        // The level as it appears in a level file, ended by a comma line.
+        public String toText()
+        {
+            StringBuilder sb = new StringBuilder();
+            for(String row : level.toDefinition().split("\\|"))
+            {
+                int end = row.length();
+                while(end > 0 && row.charAt(end - 1) == ' ') end--;
+                
+                sb.append(row, 0, end).append('\n');
+            }
+            
+            return sb.append(",\n").toString();
+        }
+    }
+    
+    // FIELDS //
+    
+    final int width, height, boxes;
+    
+    // Candidates are kept if their difficulty is at least
+    // this, and less than twice this.
+    final double difficulty;
+    
+    final int[] steps;
+    
+    // Candidates made so far, kept or not.
+    final AtomicLong candidates = new AtomicLong();
+    
+    // Time limit for solving a candidate in milliseconds, or 0 for none.
+    public long timeLimit = 1000;
+    
+    // How many candidates generate makes at most, or 0 for no limit.
+    public long maxCandidates = 0;
+    
+    // Tells the workers to stop after their current candidate.
+    volatile boolean stop;
+    
+    // CONSTRUCTORS //
+    
+    public LevelGenerator(int width, int height, int boxes, double difficulty)
+    {
+        if(width < 4 || height < 4 || boxes < 1)
+        {
+            throw new IllegalArgumentException("Rooms must be at least 4x4, with at least one box.");
+        }
+        
+        this.width = width;
+        this.height = height;
+        this.boxes = boxes;
+        this.difficulty = difficulty;
+        
+        steps = new int[] {-1, -width, 1, width};
+    }
+    
+    // FUNCTIONS //
+    
+    // Makes candidates on several threads until enough are kept. Candidate
+    // n is made from its own seed, and the kept candidates are returned in
+    // order of n, so the same seed gives the same levels on any number of
+    // threads, as long as no candidate's solving runs out of time. Fewer
+    // are returned if the candidates run out first, or if interrupted.
+    public List<Candidate> generate(final int count, int threads, final long seed)
+    {
+        final ConcurrentSkipListMap<Long, Candidate> kept = new ConcurrentSkipListMap<Long, Candidate>();
+        final AtomicInteger keptCount = new AtomicInteger();
+        final AtomicLong next = new AtomicLong();
+        stop = false;
+        
+        Thread[] workers = new Thread[Math.max(1, threads)];
+        for(int t = 0; t < workers.length; t++)
+        {
+            workers[t] = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    // Every candidate taken is finished, so once enough are
+                    // kept, all those before the last kept one are done too.
+                    while(!stop && keptCount.get() < count)
+                    {
+                        long n = next.getAndIncrement();
+                        if(maxCandidates > 0 && n >= maxCandidates) break;
+                        
+                        Candidate candidate = candidate(new Random(seed * 0x9E3779B97F4A7C15L + n));
+                        if(candidate != null)
+                        {
+                            kept.put(n, candidate);
+                            keptCount.incrementAndGet();
+                        }
+                    }
+                }
+            }, "Generator-" + t);
+            
+            workers[t].start();
+        }
+        
+        for(Thread worker : workers)
+        {
+            try
+            {
+                worker.join();
+            }
+            catch(InterruptedException e)
+            {
+                // Let the workers finish the candidates they are on, and
+                // return what has been kept, rather than leave them running.
+                stop = true;
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        
+        List<Candidate> levels = new ArrayList<Candidate>(count);
+        for(Map.Entry<Long, Candidate> entry : kept.entrySet())
+        {
+            if(levels.size() == count) break;
+            levels.add(entry.getValue());
+        }
+        
+        return levels;
+    }
+    
+    // Makes a candidate and solves it, returning it if it is
+    // as hard as wanted, or null if it is not, or has no room.
+    public Candidate candidate(Random random)
+    {
+        candidates.incrementAndGet();
+        
+        Level level = room(random);
+        if(level == null || !pullBoxes(level, random)) return null;
+        
+        Solver solver = new Solver(level);
+        solver.timeLimit = timeLimit;
+        
+        Solver.Result result = solver.solve();
+        if(!result.solved) return null;
+        
+        Candidate candidate = new Candidate(level, result);
+        double d = candidate.difficulty();
+        
+        return d >= difficulty && d < difficulty * 2 ? candidate : null;
+    }
+    
+    // Scatters walls through a walled room, then keeps only the largest
+    // open area. Walls with no floor beside them are cleared away, so the
+    // room has an outline like a hand-made one. Returns null if too little
+    // floor is left to be interesting.
+    Level room(Random random)
+    {
+        Level level = new Level(width, height);
+        byte[] board = level.board;
+        for(int y = 0; y < height; y++)
+        {
+            for(int x = 0; x < width; x++)
+            {
+                boolean edge = x == 0 || y == 0 || x == width - 1 || y == height - 1;
+                board[y * width + x] = edge || random.nextDouble() < WALL_CHANCE ? Cell.WALL : Cell.FLOOR;
+            }
+        }
+        
+        // Find the largest open area, and wall off the rest.
+        int[] area = new int[board.length];
+        int best = 0, bestSize = 0, areas = 0;
+        int[] stack = new int[board.length];
+        for(int i = 0; i < board.length; i++)
+        {
+            if(Cell.isWall(board[i]) || area[i] != 0) continue;
+            
+            int size = 0, top = 0;
+            area[i] = ++areas;
+            stack[top++] = i;
+            while(top > 0)
+            {
+                int s = stack[--top];
+                size++;
+                for(int step : steps)
+                {
+                    int n = s + step;
+                    if(Cell.isWall(board[n]) || area[n] != 0) continue;
+                    
+                    area[n] = areas;
+                    stack[top++] = n;
+                }
+            }
+            
+            if(size > bestSize)
+            {
+                best = areas;
+                bestSize = size;
+            }
+        }
+        
+        if(bestSize < boxes * 3 + 4) return null;
+        
+        for(int i = 0; i < board.length; i++)
+        {
+            if(area[i] != best) board[i] = Cell.WALL;
+        }
+        
+        // Clear walls out of sight of the floor, looking diagonally too.
+        byte[] outline = board.clone();
+        for(int y = 0; y < height; y++)
+        {
+            for(int x = 0; x < width; x++)
+            {
+                boolean seen = false;
+                for(int dy = -1; dy <= 1 && !seen; dy++)
+                {
+                    for(int dx = -1; dx <= 1 && !seen; dx++)
+                    {
+                        seen = !Cell.isWall(level.get(x + dx, y + dy));
+                    }
+                }
+                
+                if(!seen) outline[y * width + x] = Cell.FLOOR;
+            }
+        }
+        
+        // Remember the floor of the room, before the outside is cleared.
+        int[] floor = new int[bestSize];
+        int floors = 0;
+        for(int i = 0; i < board.length; i++)
+        {
+            if(area[i] == best) floor[floors++] = i;
+        }
+        
+        System.arraycopy(outline, 0, board, 0, board.length);
+        
+        // Place the goals, with a box on each, and the player beside them.
+        for(int k = 0; k < boxes; k++)
+        {
+            int j = k + random.nextInt(floors - k);
+            int goal = floor[j];
+            floor[j] = floor[k];
+            floor[k] = goal;
+            
+            board[goal] = Cell.GOAL | Cell.BOX;
+        }
+        
+        int player = floor[boxes + random.nextInt(floors - boxes)];
+        level.player = new Point(player % width, player / width);
+        
+        return level;
+    }
+    
+    // Pulls boxes away from their goals, one square at a time, preferring
+    // pulls that take a box further from the goals. The player can then
+    // always push them back. Returns false if no box could be moved off
+    // its goal.
+    boolean pullBoxes(Level level, Random random)
+    {
+        byte[] board = level.board;
+        int player = level.index(level.player);
+        
+        int[] goals = new int[boxes];
+        int g = 0;
+        for(int i = 0; i < board.length; i++)
+        {
+            if(Cell.isGoal(board[i])) goals[g++] = i;
+        }
+        
+        int[] reach = new int[board.length];
+        int[] reached = new int[board.length];
+        
+        int pulls = (int) (difficulty + random.nextInt((int) difficulty * 3 + 1));
+        int[] from = new int[boxes * 4], to = new int[boxes * 4];
+        for(int p = 1; p <= pulls; p++)
+        {
+            reach(board, player, reach, p, reached);
+            
+            // A box at b can be pulled to b + step by a player standing
+            // there, who steps back onto b + 2 * step. Score each pull by
+            // how much further from the goals it takes the box, plus noise.
+            int moves = 0, bestMove = -1;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            for(int b = 0; b < board.length; b++)
+            {
+                if(!Cell.hasBox(board[b])) continue;
+                
+                for(int step : steps)
+                {
+                    int stand = b + step, back = stand + step;
+                    if(reach[stand] != p || Cell.isWall(board[back]) || Cell.hasBox(board[back])) continue;
+                    
+                    double score = distance(goals, stand) - distance(goals, b) + random.nextDouble() * 2.5;
+                    if(score > bestScore)
+                    {
+                        bestScore = score;
+                        bestMove = moves;
+                    }
+                    
+                    from[moves] = b;
+                    to[moves] = stand;
+                    moves++;
+                }
+            }
+            
+            if(moves == 0) break;
+            
+            level.moveBox(from[bestMove], to[bestMove]);
+            player = to[bestMove] * 2 - from[bestMove];
+        }
+        
+        // Which pulls can be made only depends on where the player can
+        // walk, so the player need only be put somewhere in it at the end.
+        int reachable = reach(board, player, reach, pulls + 1, reached);
+        player = reached[random.nextInt(reachable)];
+        level.player = new Point(player % width, player / width);
+        
+        return level.goals > 0;
+    }
+    
+    // Marks the squares the player can walk to with the stamp,
+    // lists them, and returns how many there are.
+    int reach(byte[] board, int player, int[] reach, int stamp, int[] reached)
+    {
+        int count = 0, next = 0;
+        reach[player] = stamp;
+        reached[count++] = player;
+        while(next < count)
+        {
+            int s = reached[next++];
+            for(int step : steps)
+            {
+                int n = s + step;
+                if(reach[n] == stamp || Cell.isWall(board[n]) || Cell.hasBox(board[n])) continue;
+                
+                reach[n] = stamp;
+                reached[count++] = n;
+            }
+        }
+        
+        return count;
+    }
+    
+    // The Manhattan distance from a square to the nearest goal.
+    int distance(int[] goals, int square)
+    {
+        int best = Integer.MAX_VALUE;
+        for(int goal : goals)
+        {
+            int d = Math.abs(goal % width - square % width) + Math.abs(goal / width - square / width);
+            best = Math.min(best, d);
+        }
+        
+        return best;
+    }
+}
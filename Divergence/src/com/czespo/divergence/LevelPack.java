@@ -0,0 +1,271 @@
+/**
+ *  Divergence (a Sokoban (or Sokouban if you're a purist) clone)
+ *  Copyright (C) 2020 Czespo
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.czespo.divergence;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+public class LevelPack
+{
+    // STATIC //
+    
+    // Compiled packs start with "DVPK" and a format version, followed by
+    // the number of levels and the offset of each level in the file.
+    // Each level is its width, height and player position as shorts
+    // (the player is -1, -1 if missing), then the wall, goal and box
+    // planes, one bit per square in board order, each padded to a byte.
+    // The shorts are signed, so a level can be at most MAX_SIDE a side.
+    static final int MAGIC = 0x4456504B;
+    static final int VERSION = 1;
+    static final int MAX_SIDE = Short.MAX_VALUE;
+    
+    // Maps a level file into memory and indexes where each level starts
+    // and ends. Levels are only decoded when they are asked for, so
+    // opening a pack costs one pass over the file and a few bytes per level.
+    public static LevelPack open(String path) throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile(path, "r");
+        try
+        {
+            FileChannel channel = file.getChannel();
+            if(channel.size() > Integer.MAX_VALUE)
+            {
+                throw new IOException("'" + path + "' is too large to map.");
+            }
+            
+            // The mapping stays valid after the file is closed.
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if(data.limit() >= 12 && data.getInt(0) == MAGIC)
+            {
+                if(data.getInt(4) != VERSION)
+                {
+                    throw new IOException("'" + path + "' has unsupported version " + data.getInt(4) + ".");
+                }
+                
+                return new LevelPack(data, true);
+            }
+            
+            return new LevelPack(data, false);
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+    
+    // FIELDS //
+    
+    private final MappedByteBuffer data;
+    
+    // Whether this is a compiled pack rather than a text one.
+    private final boolean compiled;
+    
+    // Each level runs from its start offset up to the
+    // start of the "," line that ends it.
+    private int[] starts, ends;
+    
+    private int size;
+    
+    // CONSTRUCTORS //
+    
+    private LevelPack(MappedByteBuffer data, boolean compiled)
+    {
+        this.data = data;
+        this.compiled = compiled;
+        
+        if(compiled)
+        {
+            // Compiled packs carry their own index.
+            size = data.getInt(8);
+            starts = new int[size];
+            for(int i = 0; i < size; i++) starts[i] = data.getInt(12 + i * 4);
+            
+            return;
+        }
+        
+        starts = new int[64];
+        ends = new int[64];
+        
+        int limit = data.limit(), levelStart = 0, lineStart = 0;
+        for(int i = 0; i <= limit; i++)
+        {
+            if(i < limit && data.get(i) != '\n') continue;
+            
+            // A line containing only a comma ends a level.
+            int lineEnd = i;
+            if(lineEnd > lineStart && data.get(lineEnd - 1) == '\r') lineEnd--;
+            if(lineEnd - lineStart == 1 && data.get(lineStart) == ',')
+            {
+                if(size == starts.length)
+                {
+                    starts = Arrays.copyOf(starts, size * 2);
+                    ends = Arrays.copyOf(ends, size * 2);
+                }
+                
+                starts[size] = levelStart;
+                ends[size] = lineStart;
+                size++;
+                
+                levelStart = i + 1;
+            }
+            
+            lineStart = i + 1;
+        }
+    }
+    
+    // FUNCTIONS //
+    
+    public int size()
+    {
+        return size;
+    }
+    
+    public boolean isCompiled()
+    {
+        return compiled;
+    }
+    
+    // Returns the definition string of a level, with
+    // rows separated by '|' as Divergence.parseLevel expects.
+    public String definition(int index)
+    {
+        if(compiled) return get(index).toDefinition();
+        
+        int start = starts[index], end = ends[index];
+        
+        StringBuilder definition = new StringBuilder(end - start);
+        for(int i = start; i < end; i++)
+        {
+            char c = (char) (data.get(i) & 0xff);
+            if(c == '\n') definition.append('|');
+            else if(c != '\r') definition.append(c);
+        }
+        
+        // Drop the separator after the last row.
+        if(definition.length() > 0) definition.setLength(definition.length() - 1);
+        
+        return definition.toString();
+    }
+    
+    public Level get(int index)
+    {
+        if(!compiled) return Divergence.parseLevel(definition(index));
+        
+        int at = starts[index];
+        int width = data.getShort(at), height = data.getShort(at + 2);
+        int px = data.getShort(at + 4), py = data.getShort(at + 6);
+        
+        Level level = new Level(width, height);
+        if(px >= 0) level.player = new Point(px, py);
+        
+        // Unpack the three planes straight into the board.
+        byte[] board = level.board;
+        int planeSize = (board.length + 7) / 8;
+        int walls = at + 8, goals = walls + planeSize, boxes = goals + planeSize;
+        for(int i = 0; i < board.length; i++)
+        {
+            int bit = 1 << (i & 7), b = i >> 3;
+            byte c = Cell.FLOOR;
+            if((data.get(walls + b) & bit) != 0) c |= Cell.WALL;
+            if((data.get(goals + b) & bit) != 0) c |= Cell.GOAL;
+            if((data.get(boxes + b) & bit) != 0) c |= Cell.BOX;
+            
+            board[i] = c;
+            if(c == Cell.GOAL) level.goals++;
+        }
+        
+        return level;
+    }
+    
+    // Writes every level of this pack to a stream in the compiled format,
+    // one level at a time, so that only one is ever held in memory.
+    // Throws before writing anything if the pack cannot be compiled.
+    public void compile(OutputStream stream) throws IOException
+    {
+        // Each level's size is known from its dimensions alone, so the
+        // offsets can be found by measuring the levels, without building
+        // them, and written before the levels.
+        int[] offsets = new int[size];
+        long offset = 12 + size * 4L;
+        for(int i = 0; i < size; i++)
+        {
+            int[] dimensions = measure(i);
+            if(dimensions[0] > MAX_SIDE || dimensions[1] > MAX_SIDE)
+            {
+                throw new IOException("Level " + (i + 1) + " is " + dimensions[0] + "x" + dimensions[1]
+                    + ", but compiled levels can be at most " + MAX_SIDE + " squares a side.");
+            }
+            
+            offsets[i] = (int) offset;
+            offset += 8 + ((long) dimensions[0] * dimensions[1] + 7) / 8 * 3;
+            if(offset > Integer.MAX_VALUE) throw new IOException("The pack is too large to compile.");
+        }
+        
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(size);
+        for(int o : offsets) out.writeInt(o);
+        
+        for(int i = 0; i < size; i++)
+        {
+            Level level = get(i);
+            out.writeShort(level.width);
+            out.writeShort(level.height);
+            out.writeShort(level.player == null ? -1 : level.player.x);
+            out.writeShort(level.player == null ? -1 : level.player.y);
+            
+            writePlane(out, level.board, Cell.WALL);
+            writePlane(out, level.board, Cell.GOAL);
+            writePlane(out, level.board, Cell.BOX);
+        }
+        
+        out.flush();
+    }
+    
+    // Returns the width and height of a level, without building it.
+    private int[] measure(int index)
+    {
+        if(compiled) return new int[] {data.getShort(starts[index]), data.getShort(starts[index] + 2)};
+        
+        return Divergence.measureLevel(definition(index));
+    }
+    
+    private static void writePlane(DataOutputStream out, byte[] board, byte flag) throws IOException
+    {
+        int bits = 0;
+        for(int i = 0; i < board.length; i++)
+        {
+            if((board[i] & flag) != 0) bits |= 1 << (i & 7);
+            
+            if((i & 7) == 7)
+            {
+                out.writeByte(bits);
+                bits = 0;
+            }
+        }
+        
+        if((board.length & 7) != 0) out.writeByte(bits);
+    }
+}
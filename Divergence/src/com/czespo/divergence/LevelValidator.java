@@ -0,0 +1,355 @@
+/**
+ *  Divergence (a Sokoban (or Sokouban if you're a purist) clone)
+ *  Copyright (C) 2020 Czespo
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.czespo.divergence;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Checks every level of a pack without opening a window, so a broken
+// level is found before it is played rather than when it crashes the
+// game. Each level is read as the game reads it, and must have exactly
+// one player, at least as many boxes as goals, and at least one goal. The
+// floor the player can walk to must be walled in, and every box and goal
+// must be on it, or they can never be reached. Optionally, each level is
+// also solved, within a time limit.
+//
+// Levels are checked on several threads. The report is printed in order
+// of level as it comes in, each level once those before it are done.
+public class LevelValidator
+{
+    // STATIC //
+    
+    public static void main(String[] args) throws InterruptedException
+    {
+        // Check the level file, or the pack given. Allow an `-s` flag to
+        // solve each level as well, a `-t` flag to limit the time spent
+        // solving each, in seconds, which also turns solving on, an `-n`
+        // flag to set the number of threads, and a `-q` flag to only
+        // report levels with problems: `levels.dvpk -t 10 -n 4 -q`.
+        String path = "levels";
+        boolean solve = false, quiet = false;
+        double timeLimit = 0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for(int i = 0; i < args.length; i++)
+        {
+            if(args[i].equals("-s")) solve = true;
+            else if(args[i].equals("-q")) quiet = true;
+            else if(args[i].equals("-n") && i + 1 < args.length) threads = Integer.parseInt(args[++i]);
+            else if(args[i].equals("-t") && i + 1 < args.length)
+            {
+                timeLimit = Double.parseDouble(args[++i]);
+                solve = true;
+            }
+            else path = args[i];
+        }
+        
+        LevelPack pack;
+        try
+        {
+            pack = LevelPack.open(path);
+        }
+        catch(IOException e)
+        {
+            System.err.println("Error: could not open '" + path + "'!");
+            return;
+        }
+        
+        LevelValidator validator = new LevelValidator(pack);
+        validator.solve = solve;
+        validator.timeLimit = (long) (timeLimit * 1000);
+        validator.quiet = quiet;
+        
+        int valid = 0, solved = 0, unsolvable = 0;
+        long start = System.currentTimeMillis();
+        for(Report report : validator.validate(threads))
+        {
+            if(report.isValid()) valid++;
+            if(report.result != null && report.result.solved) solved++;
+            if(report.isUnsolvable()) unsolvable++;
+        }
+        
+        System.out.println(valid + " of " + pack.size() + " levels are valid"
+            + (solve ? ", " + solved + " solved, " + unsolvable + " unsolvable" : "")
+            + ", in " + (System.currentTimeMillis() - start) + " ms.");
+    }
+    
+    // INNER CLASSES //
+    
+    // What checking a level found.
+    public static class Report
+    {
+        // The level's index in the pack.
+        public final int index;
+        
+        public final List<String> problems = new ArrayList<String>();
+        
+        // The outcome of solving the level, or null if it was not solved.
+        public Solver.Result result;
+        
+        // Whether solving was stopped by the time limit, rather than
+        // running out of positions, when the level was not solved.
+        public boolean timedOut;
+        
+        Report(int index)
+        {
+            this.index = index;
+        }
+        
+        public boolean isValid()
+        {
+            return problems.isEmpty();
+        }
+        
+        // Whether the solver showed that there is no solution.
+        public boolean isUnsolvable()
+        {
+            return result != null && !result.solved && !timedOut;
+        }
+        
+        @Override
+        public String toString()
+        {
+            StringBuilder sb = new StringBuilder("Level " + (index + 1) + ": ");
+            if(problems.isEmpty()) sb.append("ok");
+            for(int i = 0; i < problems.size(); i++)
+            {
+                if(i > 0) sb.append("; ");
+                sb.append(problems.get(i));
+            }
+            
+            if(result != null)
+            {
+                if(result.solved) sb.append(", solved in " + result.pushes + " pushes");
+                else sb.append(timedOut ? ", not solved in time" : ", cannot be solved");
+                
+                sb.append(", " + result.millis + " ms");
+            }
+            
+            return sb.toString();
+        }
+    }
+    
+    // FIELDS //
+    
+    final LevelPack pack;
+    
+    // Whether to solve each valid level, and the time
+    // limit for each in milliseconds, or 0 for none.
+    public boolean solve;
+    
+    public long timeLimit;
+    
+    // Whether to print only reports of levels with problems.
+    public boolean quiet;
+    
+    // CONSTRUCTORS //
+    
+    public LevelValidator(LevelPack pack)
+    {
+        this.pack = pack;
+    }
+    
+    // FUNCTIONS //
+    
+    // Checks every level on several threads, printing each report
+    // as it comes in order, and returns the reports in order.
+    public List<Report> validate(int threads) throws InterruptedException
+    {
+        final AtomicInteger next = new AtomicInteger();
+        final BlockingQueue<Report> done = new LinkedBlockingQueue<Report>();
+        
+        Thread[] workers = new Thread[Math.max(1, Math.min(threads, pack.size()))];
+        for(int t = 0; t < workers.length; t++)
+        {
+            workers[t] = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    int index;
+                    while((index = next.getAndIncrement()) < pack.size())
+                    {
+                        // Every level must be reported, or the reports would
+                        // be waited for forever, so a check that fails
+                        // outright (the solver running out of memory,
+                        // say) is reported as a problem with the level.
+                        try
+                        {
+                            done.add(check(index));
+                        }
+                        catch(Throwable e)
+                        {
+                            Report report = new Report(index);
+                            report.problems.add("check failed, " + e);
+                            done.add(report);
+                        }
+                    }
+                }
+            }, "Validator-" + t);
+            
+            workers[t].setDaemon(true);
+            workers[t].start();
+        }
+        
+        // Hold back reports that come in early, until those before them are in.
+        List<Report> reports = new ArrayList<Report>(pack.size());
+        TreeMap<Integer, Report> early = new TreeMap<Integer, Report>();
+        while(reports.size() < pack.size())
+        {
+            Report report = done.take();
+            early.put(report.index, report);
+            
+            while(!early.isEmpty() && early.firstKey() == reports.size())
+            {
+                report = early.pollFirstEntry().getValue();
+                reports.add(report);
+                if(!quiet || !report.isValid() || report.isUnsolvable()) System.out.println(report);
+            }
+        }
+        
+        return reports;
+    }
+    
+    // Checks a single level of the pack.
+    public Report check(int index)
+    {
+        Report report = new Report(index);
+        
+        Level level;
+        int players;
+        try
+        {
+            // Text packs are read through the same parser as the game, but
+            // it keeps only the last player, so count them in the text.
+            if(pack.isCompiled())
+            {
+                level = pack.get(index);
+                players = level.player == null ? 0 : 1;
+            }
+            else
+            {
+                String definition = pack.definition(index);
+                level = Divergence.parseLevel(definition);
+                
+                players = 0;
+                for(int i = 0; i < definition.length(); i++)
+                {
+                    char c = definition.charAt(i);
+                    if(c == '@' || c == '&') players++;
+                }
+            }
+        }
+        catch(RuntimeException e)
+        {
+            report.problems.add("unreadable, " + e);
+            return report;
+        }
+        
+        check(level, players, report);
+        
+        if(solve && report.isValid())
+        {
+            Solver solver = new Solver(level);
+            solver.timeLimit = timeLimit;
+            
+            report.result = solver.solve();
+            report.timedOut = !report.result.solved && timeLimit > 0 && report.result.millis > timeLimit;
+        }
+        
+        return report;
+    }
+    
+    // Checks a level's contents, adding what is wrong with it to a report.
+    static void check(Level level, int players, Report report)
+    {
+        int boxes = 0, goals = 0;
+        for(byte c : level.board)
+        {
+            if(Cell.hasBox(c)) boxes++;
+            if(Cell.isGoal(c)) goals++;
+        }
+        
+        if(players == 0) report.problems.add("no player");
+        else if(players > 1) report.problems.add(players + " players");
+        
+        if(goals == 0) report.problems.add("no goals");
+        if(boxes < goals) report.problems.add(boxes + (boxes == 1 ? " box" : " boxes") + " for " + goals + " goals");
+        
+        if(level.player == null) return;
+        
+        if(!level.inBounds(level.player.x, level.player.y) || Cell.isWall(level.get(level.player)) || Cell.hasBox(level.get(level.player)))
+        {
+            report.problems.add("player is not on open floor");
+            return;
+        }
+        
+        // Find the floor the player can walk to, taking boxes to be
+        // floor too, as they can be pushed out of the way.
+        int width = level.width;
+        boolean[] reached = new boolean[level.board.length];
+        int[] stack = new int[level.board.length];
+        int top = 0;
+        boolean open = false;
+        
+        int start = level.index(level.player);
+        reached[start] = true;
+        stack[top++] = start;
+        while(top > 0)
+        {
+            int i = stack[--top];
+            int x = i % width, y = i / width;
+            
+            // Floor on the edge of the board leads off it.
+            if(x == 0 || y == 0 || x == width - 1 || y == level.height - 1) open = true;
+            
+            if(x > 0) top = visit(level, i - 1, reached, stack, top);
+            if(y > 0) top = visit(level, i - width, reached, stack, top);
+            if(x < width - 1) top = visit(level, i + 1, reached, stack, top);
+            if(y < level.height - 1) top = visit(level, i + width, reached, stack, top);
+        }
+        
+        if(open) report.problems.add("not enclosed by walls");
+        
+        int lostBoxes = 0, lostGoals = 0;
+        for(int i = 0; i < level.board.length; i++)
+        {
+            if(reached[i]) continue;
+            
+            if(Cell.hasBox(level.board[i])) lostBoxes++;
+            if(Cell.isGoal(level.board[i])) lostGoals++;
+        }
+        
+        if(lostBoxes > 0) report.problems.add(lostBoxes + (lostBoxes == 1 ? " box" : " boxes") + " out of reach");
+        if(lostGoals > 0) report.problems.add(lostGoals + (lostGoals == 1 ? " goal" : " goals") + " out of reach");
+    }
+    
+    private static int visit(Level level, int i, boolean[] reached, int[] stack, int top)
+    {
+        if(reached[i] || Cell.isWall(level.board[i])) return top;
+        
+        reached[i] = true;
+        stack[top++] = i;
+        return top;
+    }
+}
@@ -0,0 +1,315 @@
+/**
+ *  Divergence (a Sokoban (or Sokouban if you're a purist) clone)
+ *  Copyright (C) 2020 Czespo
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.czespo.divergence;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+// Measures the hot paths of a game while it is played: how long each
+// takes, how much memory each allocates, and whether the garbage
+// collector paused the game meanwhile. Can be drawn over the game,
+// and written out as percentiles when the game exits.
+public class Metrics
+{
+    // STATIC //
+    
+    static final String GC_NOTIFICATION = "com.sun.management.gc.notification";
+    
+    static final Font FONT = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+    
+    static final Color SHADE = new Color(0, 0, 0, 192);
+    
+    static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    
+    // The bytes allocated by the current thread so far, or -1 if the JVM
+    // cannot tell. Only HotSpot's own ThreadMXBean counts allocation.
+    static long allocatedBytes()
+    {
+        if(THREADS instanceof com.sun.management.ThreadMXBean)
+        {
+            return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        
+        return -1;
+    }
+    
+    // INNER CLASSES //
+    
+    // Measures one path, from begin to end. Allocation is counted per
+    // thread, so a probe must only be used by one thread at a time.
+    public class Probe
+    {
+        public final String name;
+        
+        // How long the path took, and how long it took when the garbage
+        // collector ran somewhere between its beginning and its end.
+        private final FrameTimer timer = new FrameTimer(), collected = new FrameTimer();
+        
+        private long startNanos, startBytes, startCollections;
+        
+        private long bytes, maxBytes;
+        
+        private Probe(String name)
+        {
+            this.name = name;
+        }
+        
+        public void begin()
+        {
+            startCollections = collections.get();
+            startBytes = allocatedBytes();
+            startNanos = System.nanoTime();
+        }
+        
+        public void end()
+        {
+            long nanos = System.nanoTime() - startNanos;
+            long allocated = startBytes < 0 ? 0 : allocatedBytes() - startBytes;
+            
+            timer.record(nanos);
+            if(collections.get() != startCollections) collected.record(nanos);
+            
+            synchronized(this)
+            {
+                bytes += allocated;
+                maxBytes = Math.max(maxBytes, allocated);
+            }
+        }
+        
+        public FrameTimer getTimer()
+        {
+            return timer;
+        }
+        
+        public synchronized double meanBytes()
+        {
+            long count = timer.count();
+            return count == 0 ? 0 : (double) bytes / count;
+        }
+        
+        @Override
+        public synchronized String toString()
+        {
+            // In microseconds, as ticks and moves take far less than a millisecond.
+            return String.format("%-6s p50 %7.1f p99 %7.1f max %8.1f us  %7.0f B/op  GC %d",
+                name, timer.percentileMillis(0.5) * 1000, timer.percentileMillis(0.99) * 1000, timer.maxMillis() * 1000,
+                meanBytes(), collected.count());
+        }
+    }
+    
+    // FIELDS //
+    
+    private final List<Probe> probes = new ArrayList<Probe>();
+    
+    // Collections seen so far, and how long each paused the game.
+    private final AtomicLong collections = new AtomicLong();
+    
+    private final FrameTimer pauses = new FrameTimer();
+    
+    // Where the overlay was last drawn, so that it can be redrawn.
+    private final Rectangle overlay = new Rectangle();
+    
+    // CONSTRUCTORS //
+    
+    public Metrics()
+    {
+        // Count collections as the JVM reports them, rather than polling
+        // every collector on each probe. JVMs that do not report them
+        // simply leave the count at nought.
+        NotificationListener listener = new NotificationListener()
+        {
+            @Override
+            public void handleNotification(Notification notification, Object handback)
+            {
+                if(!notification.getType().equals(GC_NOTIFICATION)) return;
+                
+                CompositeData info = (CompositeData) notification.getUserData();
+                CompositeData gcInfo = (CompositeData) info.get("gcInfo");
+                
+                collections.incrementAndGet();
+                pauses.record((Long) gcInfo.get("duration") * 1000000L);
+            }
+        };
+        
+        for(GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+        {
+            if(collector instanceof NotificationEmitter)
+            {
+                ((NotificationEmitter) collector).addNotificationListener(listener, null, null);
+            }
+        }
+    }
+    
+    // FUNCTIONS //
+    
+    public synchronized Probe probe(String name)
+    {
+        Probe probe = new Probe(name);
+        probes.add(probe);
+        return probe;
+    }
+    
+    public synchronized Rectangle getOverlayBounds()
+    {
+        return new Rectangle(overlay);
+    }
+    
+    // Draws a line for each probe, and one for the collector,
+    // over a dark box, with its top left corner at x, y.
+    public void drawOverlay(Graphics g, int x, int y)
+    {
+        List<String> lines = new ArrayList<String>();
+        synchronized(this)
+        {
+            for(Probe probe : probes) lines.add(probe.toString());
+        }
+        
+        lines.add(String.format("gc     %d pauses, p99 %.1f ms, max %.1f ms, total %.0f ms",
+            pauses.count(), pauses.percentileMillis(0.99), pauses.maxMillis(), pauses.totalMillis()));
+        
+        g.setFont(FONT);
+        FontMetrics fm = g.getFontMetrics();
+        
+        int width = 0;
+        for(String line : lines) width = Math.max(width, fm.stringWidth(line));
+        
+        int lineHeight = fm.getHeight();
+        int height = lineHeight * lines.size() + 8;
+        width += 8;
+        
+        synchronized(this)
+        {
+            overlay.setBounds(x, y, width, height);
+        }
+        
+        g.setColor(SHADE);
+        g.fillRect(x, y, width, height);
+        
+        g.setColor(Color.WHITE);
+        for(int i = 0; i < lines.size(); i++)
+        {
+            g.drawString(lines.get(i), x + 4, y + 4 + fm.getAscent() + i * lineHeight);
+        }
+    }
+    
+    // Writes the distribution of each probe's times, in the layout of
+    // HdrHistogram's percentile output, so the usual plotters can read it.
+    public synchronized void write(PrintStream out)
+    {
+        for(Probe probe : probes)
+        {
+            out.println("# " + probe.name);
+            writeDistribution(out, probe.timer);
+            
+            out.printf("#[Allocated = %12.1f B/op, Max allocated  = %12d B]%n", probe.meanBytes(), probe.maxBytes);
+            out.printf("#[GC during = %12d, Mean when GC   = %12.3f]%n", probe.collected.count(), probe.collected.meanMillis());
+            out.println();
+        }
+        
+        out.println("# gc pauses");
+        writeDistribution(out, pauses);
+    }
+    
+    // Writes the metrics to a file once the game exits, however it exits.
+    public void writeOnExit(final String path)
+    {
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    write(path);
+                }
+                catch(IOException e)
+                {
+                    System.err.println("Unable to write metrics to " + path + ": " + e.getMessage());
+                }
+            }
+        }));
+    }
+    
+    public void write(String path) throws IOException
+    {
+        PrintStream out = new PrintStream(new FileOutputStream(path));
+        try
+        {
+            write(out);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+    
+    @Override
+    public synchronized String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        for(Probe probe : probes) sb.append(probe).append('\n');
+        sb.append(String.format("gc     %d pauses, max %.1f ms", pauses.count(), pauses.maxMillis()));
+        return sb.toString();
+    }
+    
+    // Percentiles step halfway towards 100 at a time,
+    // five steps per halving, as HdrHistogram does.
+    private static void writeDistribution(PrintStream out, FrameTimer timer)
+    {
+        out.printf("%12s %14s %10s %14s%n%n", "Value", "Percentile", "TotalCount", "1/(1-Percentile)");
+        
+        long count = timer.count();
+        if(count > 0)
+        {
+            double fraction = 0;
+            while(true)
+            {
+                long rank = Math.max(1, (long) Math.ceil(fraction * count - 1e-9));
+                out.printf("%12.6f %2.12f %10d %14.2f%n", timer.percentileMillis(fraction), fraction, rank, 1 / (1 - fraction));
+                
+                if(rank >= count) break;
+                
+                int halvings = (int) Math.floor(Math.log(1 / (1 - fraction)) / Math.log(2));
+                fraction += 1 / (10.0 * (1L << halvings));
+            }
+            
+            out.printf("%12.6f %2.12f %10d%n", timer.maxMillis(), 1.0, count);
+        }
+        
+        out.printf("#[Mean    = %12.3f, StdDeviation   = %12.3f]%n", timer.meanMillis(), timer.deviationMillis());
+        out.printf("#[Max     = %12.3f, Total count    = %12d]%n", timer.maxMillis(), count);
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ *  Divergence (a Sokoban (or Sokouban if you're a purist) clone)
+ *  Copyright (C) 2020 Czespo
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.czespo.divergence;
+
+import java.util.Arrays;
+
+public class MoveJournal
+{
+    // STATIC //
+    
+    // Each move is stored in one byte: the direction index in the low
+    // two bits (left, up, right, down), and the PUSH bit if a box moved.
+    public static final int PUSH = 4;
+    
+    // FIELDS //
+    
+    private byte[] moves = new byte[256];
+    
+    // Moves below the cursor have been played. Moves from the
+    // cursor up to the top have been undone, and may be redone.
+    private int cursor, top;
+    
+    // FUNCTIONS //
+    
+    public int size()
+    {
+        return cursor;
+    }
+    
+    public void clear()
+    {
+        cursor = top = 0;
+    }
+    
+    public void record(int direction, boolean push)
+    {
+        if(cursor == moves.length) moves = Arrays.copyOf(moves, moves.length * 2);
+        
+        moves[cursor++] = (byte) (push ? direction | PUSH : direction);
+        
+        // A new move discards anything that could have been redone.
+        top = cursor;
+    }
+    
+    // Steps back over the last move, returning it, or -1 if there is none.
+    public int undo()
+    {
+        if(cursor == 0) return -1;
+        
+        return moves[--cursor];
+    }
+    
+    // Steps forward over the last undone move, returning it, or -1 if there is none.
+    public int redo()
+    {
+        if(cursor == top) return -1;
+        
+        return moves[cursor++];
+    }
+}
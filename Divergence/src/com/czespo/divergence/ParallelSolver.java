@@ -0,0 +1,253 @@
+/**
+ *  Divergence (a Sokoban (or Sokouban if you're a purist) clone)
+ *  Copyright (C) 2020 Czespo
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.czespo.divergence;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Hash distributed A*: every state is owned by one worker, chosen by the
+// hash of its boxes, and pushes are sent to the owner's inbox. Each worker
+// runs A* on its own open list, so the search stops at the first solution
+// found by any worker, which may be a few pushes longer than optimal.
+public class ParallelSolver
+{
+    // STATIC //
+    
+    // How long an idle worker waits for work before checking whether the
+    // search is over, in milliseconds. Bounds how late workers notice the end.
+    static final long IDLE_WAIT = 1;
+    
+    public static void main(String[] args)
+    {
+        // Solve a level file with 1 to N threads and report the speedup.
+        // Allow a `-t` flag to limit the time spent on each level, in
+        // seconds, an `-n` flag to set N, and an `-f` flag to set the file:
+        // `-t 10 -n 8 -f bench/levels`. Defaults to no limit,
+        // every core, and 'levels'.
+        long timeLimit = 0;
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        String path = "levels";
+        for(int i = 0; i + 1 < args.length; i++)
+        {
+            if(args[i].equals("-t")) timeLimit = Long.parseLong(args[i + 1]) * 1000;
+            else if(args[i].equals("-n")) maxThreads = Integer.parseInt(args[i + 1]);
+            else if(args[i].equals("-f")) path = args[i + 1];
+        }
+        
+        if(!Divergence.initLevels(path)) return;
+        
+        long base = 0;
+        for(int threads = 1; threads <= maxThreads; threads++)
+        {
+            int solved = 0, pushes = 0;
+            long nodes = 0, start = System.currentTimeMillis();
+            for(int i = 0; i < Divergence.levels.size(); i++)
+            {
+                ParallelSolver solver = new ParallelSolver(Divergence.levels.get(i), threads);
+                solver.timeLimit = timeLimit;
+                
+                Solver.Result result = solver.solve();
+                nodes += result.nodes;
+                if(result.solved)
+                {
+                    solved++;
+                    pushes += result.pushes;
+                }
+            }
+            
+            long millis = Math.max(1, System.currentTimeMillis() - start);
+            if(threads == 1) base = millis;
+            
+            System.out.printf("%2d threads: %6d ms, speedup %5.2f, %d/%d solved in %d pushes, %d nodes/s%n",
+                threads, millis, (double) base / millis, solved, Divergence.levels.size(),
+                pushes, nodes * 1000 / millis);
+        }
+    }
+    
+    // FIELDS //
+    
+    final Solver solver;
+    
+    final Worker[] workers;
+    
+    // Time limit for a search in milliseconds, or 0 for none.
+    public long timeLimit = 0;
+    
+    // OBJECTS //
+    
+    ConcurrentTranspositionTable table;
+    
+    // Nodes sent to a worker that have not been fully expanded yet.
+    // When this drops to zero, the whole space has been searched.
+    final AtomicLong pending = new AtomicLong();
+    
+    final AtomicReference<Solver.Node> solution = new AtomicReference<Solver.Node>();
+    
+    volatile boolean stop;
+    
+    long start;
+    
+    // CONSTRUCTORS //
+    
+    public ParallelSolver(Level level, int threads)
+    {
+        solver = new Solver(level);
+        
+        workers = new Worker[threads];
+        for(int i = 0; i < threads; i++) workers[i] = new Worker();
+    }
+    
+    // INNER CLASSES //
+    
+    class Worker implements Runnable, Solver.Sink
+    {
+        final LinkedBlockingQueue<Solver.Node> inbox = new LinkedBlockingQueue<Solver.Node>();
+        
+        final PriorityQueue<Solver.Node> open = new PriorityQueue<Solver.Node>(Solver.ORDER);
+        
+        final Solver.Expander expander = solver.new Expander();
+        
+        long nodes;
+        
+        @Override
+        public void accept(Solver.Node child)
+        {
+            send(child);
+        }
+        
+        @Override
+        public void run()
+        {
+            while(!stop)
+            {
+                inbox.drainTo(open);
+                
+                Solver.Node node = open.poll();
+                if(node == null)
+                {
+                    // Nothing to do here, but other workers
+                    // may still send us something, so sleep
+                    // until they do, or the search is over.
+                    if(pending.get() == 0) break;
+                    
+                    try
+                    {
+                        node = inbox.poll(IDLE_WAIT, TimeUnit.MILLISECONDS);
+                    }
+                    catch(InterruptedException e)
+                    {
+                        stop = true;
+                        break;
+                    }
+                    
+                    if(node != null) open.add(node);
+                    continue;
+                }
+                
+                if((nodes & 1023) == 0 && timeLimit > 0
+                    && System.currentTimeMillis() - start > timeLimit) stop = true;
+                
+                long key = expander.explore(node);
+                if(table.improve(key, node.g))
+                {
+                    nodes++;
+                    if(node.h == 0)
+                    {
+                        solution.compareAndSet(null, node);
+                        stop = true;
+                    }
+                    else
+                    {
+                        expander.expand(node, this);
+                    }
+                }
+                else
+                {
+                    expander.expand(node, null);
+                }
+                
+                pending.decrementAndGet();
+            }
+        }
+    }
+    
+    // FUNCTIONS //
+    
+    void send(Solver.Node node)
+    {
+        long hash = 0;
+        for(int b : node.boxes) hash ^= solver.zBox[b];
+        
+        pending.incrementAndGet();
+        workers[(int) ((hash >>> 1) % workers.length)].inbox.add(node);
+    }
+    
+    public Solver.Result solve()
+    {
+        Solver.Result result = new Solver.Result();
+        start = System.currentTimeMillis();
+        
+        table = new ConcurrentTranspositionTable(workers.length * 16, 1 << 12);
+        
+        int[] boxes = solver.startBoxes.clone();
+        Arrays.sort(boxes);
+        
+        int h = workers[0].expander.heuristic(boxes);
+        if(h < Solver.INF) send(new Solver.Node(boxes, solver.startPlayer, 0, h, null, 0, 0));
+        
+        Thread[] threads = new Thread[workers.length];
+        for(int i = 0; i < threads.length; i++)
+        {
+            threads[i] = new Thread(workers[i], "Solver-" + i);
+            threads[i].start();
+        }
+        
+        for(Thread thread : threads)
+        {
+            try
+            {
+                thread.join();
+            }
+            catch(InterruptedException e)
+            {
+                stop = true;
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        for(Worker worker : workers) result.nodes += worker.nodes;
+        
+        Solver.Node goal = solution.get();
+        if(goal != null)
+        {
+            result.solved = true;
+            result.pushes = goal.g;
+            result.moves = solver.moves(goal);
+        }
+        
+        result.peakTable = table.size();
+        result.millis = System.currentTimeMillis() - start;
+        
+        return result;
+    }
+}
@@ -0,0 +1,234 @@
+/**
+ *  Divergence (a Sokoban (or Sokouban if you're a purist) clone)
+ *  Copyright (C) 2020 Czespo
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.czespo.divergence;
+
+import java.util.Arrays;
+
+// Finds where the player can walk to without pushing a box, and the
+// shortest way there. The squares the player can reach are labelled
+// once, by a flood from the player, and the labels are kept until a box
+// moves: walking never changes which squares can be reached, only a push
+// does. Whether a square can be walked to is then a lookup, however far
+// the player has walked since. A path is searched for per click, outwards
+// from the player and only as far as its end, then traced back from
+// there, so it takes time in the area nearer the player than its end.
+public class Reachability
+{
+    // FIELDS //
+    
+    private Level level;
+    
+    // Squares reached by the flood have the region stamp. Squares reached
+    // by the last path search have the search stamp, and their distance
+    // from the player. The stamps come from the same count, so never match.
+    private int[] region, seen, dist, queue;
+    
+    private int stamp, regionStamp, searchStamp;
+    
+    // Whether the region is still labelled, as no box has moved since.
+    private boolean labelled;
+    
+    // FUNCTIONS //
+    
+    // Starts on a level, whose board is then watched.
+    public void reset(Level level)
+    {
+        this.level = level;
+        
+        int size = level.board.length;
+        if(dist == null || dist.length != size)
+        {
+            region = new int[size];
+            seen = new int[size];
+            dist = new int[size];
+            queue = new int[size];
+            stamp = 0;
+        }
+        
+        labelled = false;
+    }
+    
+    // Throws the labels away, after a box has moved.
+    public void invalidate()
+    {
+        labelled = false;
+    }
+    
+    // Whether the player can walk to a square, without pushing anything.
+    public boolean isReachable(int square)
+    {
+        if(!labelled) label();
+        return region[square] == regionStamp;
+    }
+    
+    // Returns the shortest walk to a square, as direction
+    // indices, or null if it cannot be walked to.
+    public int[] path(int square)
+    {
+        if(!isReachable(square)) return null;
+        
+        search(new int[] {square});
+        return trace(square);
+    }
+    
+    // Returns the shortest walk to beside a box, followed by one push of
+    // it, as direction indices, or null if it cannot be pushed at all.
+    // Of the ways it can be pushed, the one nearest the player is taken.
+    public int[] pushPath(int box)
+    {
+        // The squares to stand on to push the box, each way it can go.
+        int[] stands = new int[4];
+        int count = 0;
+        for(int d = 0; d < 4; d++)
+        {
+            int stand = neighbour(box, (d + 2) & 3), to = neighbour(box, d);
+            if(stand < 0 || to < 0 || !isReachable(stand)) continue;
+            if(Cell.isWall(level.board[to]) || Cell.hasBox(level.board[to])) continue;
+            
+            stands[count++] = stand;
+        }
+        
+        if(count == 0) return null;
+        
+        // The search stops at whichever stand it reaches first, the nearest.
+        int stand = search(Arrays.copyOf(stands, count));
+        int[] walk = trace(stand);
+        int[] path = Arrays.copyOf(walk, walk.length + 1);
+        for(int d = 0; d < 4; d++)
+        {
+            if(neighbour(stand, d) == box) path[walk.length] = d;
+        }
+        
+        return path;
+    }
+    
+    // Returns the square beside another in a direction,
+    // or -1 if that would be off the board.
+    int neighbour(int square, int direction)
+    {
+        int x = square % level.width, y = square / level.width;
+        switch(direction)
+        {
+            case 0: return x > 0 ? square - 1 : -1;
+            case 1: return y > 0 ? square - level.width : -1;
+            case 2: return x < level.width - 1 ? square + 1 : -1;
+            case 3: return y < level.height - 1 ? square + level.width : -1;
+        }
+        
+        return -1;
+    }
+    
+    private int nextStamp()
+    {
+        if(++stamp == 0)
+        {
+            // The stamp wrapped around, so old stamps could match it.
+            Arrays.fill(region, 0);
+            Arrays.fill(seen, 0);
+            labelled = false;
+            stamp = 1;
+        }
+        
+        return stamp;
+    }
+    
+    private static boolean isFree(byte c)
+    {
+        return !Cell.isWall(c) && !Cell.hasBox(c);
+    }
+    
+    // Labels every square the player can walk to.
+    private void label()
+    {
+        regionStamp = nextStamp();
+        labelled = true;
+        
+        int from = level.index(level.player), head = 0, tail = 0;
+        region[from] = regionStamp;
+        queue[tail++] = from;
+        while(head < tail)
+        {
+            int square = queue[head++];
+            for(int d = 0; d < 4; d++)
+            {
+                int next = neighbour(square, d);
+                if(next < 0 || region[next] == regionStamp || !isFree(level.board[next])) continue;
+                
+                region[next] = regionStamp;
+                queue[tail++] = next;
+            }
+        }
+    }
+    
+    // Searches outwards from the player until it reaches one of the
+    // targets, which must all be reachable, and returns the first reached.
+    private int search(int[] targets)
+    {
+        searchStamp = nextStamp();
+        
+        int from = level.index(level.player), head = 0, tail = 0;
+        seen[from] = searchStamp;
+        dist[from] = 0;
+        queue[tail++] = from;
+        while(head < tail)
+        {
+            int square = queue[head++];
+            for(int target : targets)
+            {
+                if(square == target) return square;
+            }
+            
+            for(int d = 0; d < 4; d++)
+            {
+                int next = neighbour(square, d);
+                if(next < 0 || seen[next] == searchStamp || !isFree(level.board[next])) continue;
+                
+                seen[next] = searchStamp;
+                dist[next] = dist[square] + 1;
+                queue[tail++] = next;
+            }
+        }
+        
+        return -1;
+    }
+    
+    // Traces the walk to a square the last search reached, stepping back
+    // from it towards the player, to a square one closer each time.
+    private int[] trace(int square)
+    {
+        int[] path = new int[dist[square]];
+        int at = square;
+        for(int k = path.length - 1; k >= 0; k--)
+        {
+            for(int d = 0; d < 4; d++)
+            {
+                // Opposite directions are two indices apart.
+                int from = neighbour(at, (d + 2) & 3);
+                if(from >= 0 && seen[from] == searchStamp && dist[from] == dist[at] - 1)
+                {
+                    path[k] = d;
+                    at = from;
+                    break;
+                }
+            }
+        }
+        
+        return path;
+    }
+}
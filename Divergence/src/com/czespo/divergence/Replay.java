@@ -0,0 +1,277 @@
+/**
+ *  Divergence (a Sokoban (or Sokouban if you're a purist) clone)
+ *  Copyright (C) 2020 Czespo
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.czespo.divergence;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// A recorded game: the level it started on, and every key that changed
+// the game, in order, one byte each. The keys are moves, restarts, undos
+// and redos; levels follow on from each other as they are completed, as
+// when playing. Pressing the keys again on the same level pack plays the
+// whole game again, which the final level and its hash confirm.
+//
+// On disk, a replay is the magic number "DVRP", a version, the starting
+// level and its hash, the number of keys and the keys, then the level
+// the game ended on and its hash.
+public class Replay
+{
+    // STATIC //
+    
+    static final int MAGIC = 0x44565250;
+    static final int VERSION = 1;
+    
+    // Keys are stored as their direction's index in
+    // Divergence.DIRECTIONS, or as one of these.
+    static final byte RESTART = 4;
+    static final byte UNDO = 5;
+    static final byte REDO = 6;
+    
+    // Bytes in a replay besides its keys.
+    static final int OVERHEAD = 4 + 1 + 4 + 8 + 4 + 4 + 8;
+    
+    public static void main(String[] args)
+    {
+        // Play each replay file given out headlessly, as fast as possible,
+        // and report whether it ends as it was recorded. Allow an `-f`
+        // flag to set the level file: `-f levels a.dvrp b.dvrp`.
+        String path = "levels";
+        List<String> files = new ArrayList<String>();
+        for(int i = 0; i < args.length; i++)
+        {
+            if(args[i].equals("-f") && i + 1 < args.length) path = args[++i];
+            else files.add(args[i]);
+        }
+        
+        if(!Divergence.initLevels(path)) return;
+        
+        Divergence game = new Divergence(800, 600);
+        
+        int passed = 0;
+        long keys = 0, start = System.nanoTime();
+        for(String file : files)
+        {
+            try
+            {
+                Replay replay = read(file);
+                boolean ok = replay.verify(game);
+                if(ok) passed++;
+                keys += replay.size();
+                
+                System.out.println(file + ": " + (ok ? "ok" : "MISMATCH") + ", " + replay.size() + " keys");
+            }
+            catch(IOException e)
+            {
+                System.out.println(file + ": unreadable, " + e.getMessage());
+            }
+        }
+        
+        long nanos = Math.max(1, System.nanoTime() - start);
+        System.out.println(passed + " of " + files.size() + " replays match, "
+            + keys * 1000000000L / nanos + " keys/s.");
+    }
+    
+    // Returns what a key is stored as, or -1 if it does not change the game.
+    static int op(int key)
+    {
+        switch(key)
+        {
+            case Divergence.KEY_R: return RESTART;
+            case Divergence.KEY_Z: return UNDO;
+            case Divergence.KEY_Y: return REDO;
+        }
+        
+        return Divergence.directionIndex(key);
+    }
+    
+    static int key(int op)
+    {
+        switch(op)
+        {
+            case RESTART: return Divergence.KEY_R;
+            case UNDO: return Divergence.KEY_Z;
+            case REDO: return Divergence.KEY_Y;
+        }
+        
+        return Divergence.DIRECTIONS[op];
+    }
+    
+    public static Replay read(String path) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)));
+        try
+        {
+            if(in.readInt() != MAGIC) throw new IOException("not a Divergence replay");
+            if(in.readUnsignedByte() != VERSION) throw new IOException("unsupported replay version");
+            
+            Replay replay = new Replay(in.readInt(), in.readLong());
+            
+            // Each key takes a byte, so there cannot be more
+            // keys than bytes left in the file after them.
+            int count = in.readInt();
+            if(count < 0 || count > new File(path).length() - OVERHEAD) throw new IOException("malformed replay");
+            
+            replay.ops = new byte[Math.max(count, 1)];
+            in.readFully(replay.ops, 0, count);
+            replay.count = count;
+            
+            for(int i = 0; i < count; i++)
+            {
+                if(replay.ops[i] < 0 || replay.ops[i] > REDO) throw new IOException("malformed replay");
+            }
+            
+            replay.endLevel = in.readInt();
+            replay.endHash = in.readLong();
+            
+            return replay;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+    
+    // FIELDS //
+    
+    public final int startLevel;
+    
+    // The hash of the starting level as it was loaded, to tell
+    // if the replay is played on a different level pack.
+    public final long startHash;
+    
+    private byte[] ops = new byte[256];
+    
+    private int count;
+    
+    // The level the game ended on, and its hash, once finished.
+    private int endLevel;
+    
+    private long endHash;
+    
+    // The next key to press, during playback.
+    private int next;
+    
+    // CONSTRUCTORS //
+    
+    public Replay(int startLevel, long startHash)
+    {
+        this.startLevel = startLevel;
+        this.startHash = startHash;
+    }
+    
+    // FUNCTIONS //
+    
+    // Records a key, if it changes the game.
+    public synchronized void record(int key)
+    {
+        int op = op(key);
+        if(op < 0) return;
+        
+        if(count == ops.length) ops = Arrays.copyOf(ops, count * 2);
+        ops[count++] = (byte) op;
+    }
+    
+    // Ends the recording with the state the game was left in.
+    public synchronized void finish(Divergence game)
+    {
+        endLevel = game.levelNum;
+        endHash = game.currentLevel.hash();
+    }
+    
+    public synchronized int size()
+    {
+        return count;
+    }
+    
+    // Sets the game up on the level the recording started on.
+    // Returns false if that level is not as it was recorded.
+    public synchronized boolean start(Divergence game)
+    {
+        next = 0;
+        if(startLevel >= Divergence.levels.size()) return false;
+        
+        game.levelNum = startLevel;
+        game.startLevel();
+        
+        return game.pristine.hash() == startHash;
+    }
+    
+    // Returns the next key to press, or -1 once all have been pressed.
+    public synchronized int nextKey()
+    {
+        return next < count ? key(ops[next++]) : -1;
+    }
+    
+    public synchronized boolean matches(Divergence game)
+    {
+        return game.levelNum == endLevel && game.currentLevel.hash() == endHash;
+    }
+    
+    // Presses every key on the game, without waiting to draw,
+    // and checks that it ends in the state it was recorded in.
+    public boolean verify(Divergence game)
+    {
+        synchronized(game)
+        {
+            game.playback = this;
+            try
+            {
+                if(!start(game)) return false;
+                
+                int key;
+                while((key = nextKey()) != -1) game.press(key);
+                
+                return matches(game);
+            }
+            finally
+            {
+                game.playback = null;
+            }
+        }
+    }
+    
+    public synchronized void write(String path) throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)));
+        try
+        {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(startLevel);
+            out.writeLong(startHash);
+            out.writeInt(count);
+            out.write(ops, 0, count);
+            out.writeInt(endLevel);
+            out.writeLong(endHash);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+}
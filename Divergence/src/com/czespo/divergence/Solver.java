@@ -0,0 +1,581 @@
+/**
+ *  Divergence (a Sokoban (or Sokouban if you're a purist) clone)
+ *  Copyright (C) 2020 Czespo
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.czespo.divergence;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+public class Solver
+{
+    // STATIC //
+    
+    // Large enough to mark a box that can never reach a goal,
+    // small enough that adding a few of them cannot overflow.
+    static final int INF = 1 << 20;
+    
+    // Walking and pushing moves, in the usual LURD notation.
+    static final char[] WALK = {'l', 'u', 'r', 'd'};
+    static final char[] PUSH = {'L', 'U', 'R', 'D'};
+    
+    static final Comparator<Node> ORDER = new Comparator<Node>()
+    {
+        @Override
+        public int compare(Node a, Node b)
+        {
+            // Lowest estimated total first. On ties, prefer
+            // the deeper node, as it is closer to a solution.
+            if(a.g + a.h != b.g + b.h) return (a.g + a.h) - (b.g + b.h);
+            
+            return b.g - a.g;
+        }
+    };
+    
+    public static void main(String[] args)
+    {
+        // Solve every level in the level file, without opening a window.
+        // Allow a `-t` flag to limit the time spent on each level,
+        // in seconds: `-t 10`. Defaults to no limit.
+        long timeLimit = 0;
+        for(int i = 0; i < args.length; i++)
+        {
+            if(args[i].equals("-t") && i + 1 < args.length)
+            {
+                timeLimit = Long.parseLong(args[i + 1]) * 1000;
+            }
+        }
+        
+        if(!Divergence.initLevels()) return;
+        
+        int solved = 0;
+        long start = System.currentTimeMillis();
+        for(int i = 0; i < Divergence.levels.size(); i++)
+        {
+            Solver solver = new Solver(Divergence.levels.get(i));
+            solver.timeLimit = timeLimit;
+            
+            Result result = solver.solve();
+            if(result.solved) solved++;
+            
+            System.out.println("Level " + (i + 1) + ": " + result);
+            if(result.solved) System.out.println("    " + result.moves);
+        }
+        
+        System.out.println("Solved " + solved + " of " + Divergence.levels.size()
+            + " levels in " + (System.currentTimeMillis() - start) + " ms.");
+    }
+    
+    // FIELDS //
+    
+    // The solver works on a copy of the board with a one square border
+    // of walls, so that stepping off any edge always hits a wall.
+    final int width, size;
+    
+    final boolean[] wall, dead;
+    
+    final int[] goals, steps;
+    
+    // Number of pushes needed to move a box from
+    // a square to each goal, ignoring other boxes.
+    final int[][] goalDist;
+    
+    // Zobrist keys for boxes and the normalised player position.
+    final long[] zBox, zPlayer;
+    
+    final int[] startBoxes;
+    
+    final int startPlayer;
+    
+    // Whether dead squares may be used to prune pushes. This is only
+    // sound when every box is needed, i.e. there are as many boxes as goals.
+    final boolean pruneDead;
+    
+    // Time limit for a search in milliseconds, or 0 for none.
+    public long timeLimit = 0;
+    
+    // CONSTRUCTORS //
+    
+    public Solver(Level level)
+    {
+        if(level.player == null)
+        {
+            throw new IllegalArgumentException("Level has no player.");
+        }
+        
+        width = level.width + 2;
+        size = width * (level.height + 2);
+        steps = new int[] {-1, -width, 1, width};
+        
+        wall = new boolean[size];
+        Arrays.fill(wall, true);
+        
+        int goalCount = 0, boxCount = 0;
+        for(int y = 0; y < level.height; y++)
+        {
+            for(int x = 0; x < level.width; x++)
+            {
+                byte c = level.get(x, y);
+                wall[toSquare(x, y)] = Cell.isWall(c);
+                if(Cell.isGoal(c)) goalCount++;
+                if(Cell.hasBox(c)) boxCount++;
+            }
+        }
+        
+        goals = new int[goalCount];
+        startBoxes = new int[boxCount];
+        goalCount = boxCount = 0;
+        for(int y = 0; y < level.height; y++)
+        {
+            for(int x = 0; x < level.width; x++)
+            {
+                byte c = level.get(x, y);
+                if(Cell.isGoal(c)) goals[goalCount++] = toSquare(x, y);
+                if(Cell.hasBox(c)) startBoxes[boxCount++] = toSquare(x, y);
+            }
+        }
+        
+        startPlayer = toSquare(level.player.x, level.player.y);
+        pruneDead = goals.length == startBoxes.length;
+        
+        // Pull a box backwards from each goal to find how many pushes
+        // it takes to get there from anywhere. Squares that cannot
+        // reach any goal this way are dead: a box there is stuck.
+        goalDist = new int[goals.length][];
+        dead = new boolean[size];
+        Arrays.fill(dead, true);
+        for(int g = 0; g < goals.length; g++)
+        {
+            goalDist[g] = pullDistances(goals[g]);
+            for(int i = 0; i < size; i++)
+            {
+                if(goalDist[g][i] < INF) dead[i] = false;
+            }
+        }
+        
+        Random random = new Random(0x5eed);
+        zBox = new long[size];
+        zPlayer = new long[size];
+        for(int i = 0; i < size; i++)
+        {
+            zBox[i] = random.nextLong();
+            zPlayer[i] = random.nextLong();
+        }
+    }
+    
+    // INNER CLASSES //
+    
+    static class Node
+    {
+        // Sorted box squares.
+        int[] boxes;
+        
+        // Actual player square, and the cost so far and estimated cost to go.
+        int player, g, h;
+        
+        // The push that led here: the square the box was pushed
+        // from, and the direction it was pushed in.
+        int box, dir;
+        
+        Node parent;
+        
+        Node(int[] boxes, int player, int g, int h, Node parent, int box, int dir)
+        {
+            this.boxes = boxes;
+            this.player = player;
+            this.g = g;
+            this.h = h;
+            this.parent = parent;
+            this.box = box;
+            this.dir = dir;
+        }
+    }
+    
+    public static class Result
+    {
+        public boolean solved;
+        
+        // Moves in LURD notation, pushes in upper case.
+        public String moves;
+        
+        public int pushes, peakTable;
+        
+        public long nodes, millis;
+        
+        public long nodesPerSecond()
+        {
+            return millis == 0 ? nodes * 1000 : nodes * 1000 / millis;
+        }
+        
+        @Override
+        public String toString()
+        {
+            return (solved ? "solved in " + pushes + " pushes" : "not solved")
+                + ", " + nodes + " nodes, " + nodesPerSecond() + " nodes/s"
+                + ", peak table " + peakTable + ", " + millis + " ms";
+        }
+    }
+    
+    // Scratch space for exploring states. Not thread safe,
+    // so each thread searching needs an expander of its own.
+    class Expander
+    {
+        final int[] mark = new int[size], queue = new int[size];
+        
+        final boolean[] boxAt = new boolean[size];
+        
+        int stamp;
+        
+        int[] matchU, matchV, matchP, matchWay, matchMin;
+        
+        boolean[] matchUsed;
+        
+        Expander()
+        {
+            int m = startBoxes.length + 1;
+            matchU = new int[goals.length + 1];
+            matchV = new int[m];
+            matchP = new int[m];
+            matchWay = new int[m];
+            matchMin = new int[m];
+            matchUsed = new boolean[m];
+        }
+        
+        // Marks every square the player can walk to with the
+        // current stamp, and returns the lowest such square.
+        // Expects boxAt to describe the boxes.
+        int reach(int player)
+        {
+            stamp++;
+            
+            int head = 0, tail = 0, min = player;
+            queue[tail++] = player;
+            mark[player] = stamp;
+            while(head < tail)
+            {
+                int p = queue[head++];
+                if(p < min) min = p;
+                
+                for(int d = 0; d < 4; d++)
+                {
+                    int q = p + steps[d];
+                    if(!wall[q] && !boxAt[q] && mark[q] != stamp)
+                    {
+                        mark[q] = stamp;
+                        queue[tail++] = q;
+                    }
+                }
+            }
+            
+            return min;
+        }
+        
+        void placeBoxes(int[] boxes, boolean value)
+        {
+            for(int b : boxes) boxAt[b] = value;
+        }
+        
+        // Places a node's boxes and marks where the player can walk,
+        // returning its transposition key. The node must then be
+        // passed to expand, which uses the marks and clears the boxes.
+        long explore(Node node)
+        {
+            placeBoxes(node.boxes, true);
+            long key = zPlayer[reach(node.player)];
+            for(int b : node.boxes) key ^= zBox[b];
+            
+            return key;
+        }
+        
+        // Passes the pushes of the node last explored to the sink, as
+        // children, unless the sink is null, then clears its boxes.
+        void expand(Node node, Sink sink)
+        {
+            if(sink != null)
+            {
+                for(int k = 0; k < node.boxes.length; k++)
+                {
+                    int b = node.boxes[k];
+                    for(int d = 0; d < 4; d++)
+                    {
+                        int from = b - steps[d], to = b + steps[d];
+                        if(mark[from] != stamp || wall[to] || boxAt[to]) continue;
+                        if(pruneDead && dead[to]) continue;
+                        
+                        int[] boxes = push(node.boxes, k, to);
+                        int h = heuristic(boxes);
+                        if(h < INF) sink.accept(new Node(boxes, b, node.g + 1, h, node, b, d));
+                    }
+                }
+            }
+            
+            placeBoxes(node.boxes, false);
+        }
+        
+        // Lower bound on the pushes left: the cheapest way of giving each
+        // goal a box of its own, found with the Hungarian algorithm.
+        int heuristic(int[] boxes)
+        {
+            int n = goals.length, m = boxes.length;
+            
+            // Without a box for every goal, the level cannot be completed.
+            if(n > m) return INF;
+            
+            Arrays.fill(matchU, 0);
+            Arrays.fill(matchV, 0);
+            Arrays.fill(matchP, 0);
+            
+            for(int i = 1; i <= n; i++)
+            {
+                matchP[0] = i;
+                int j0 = 0;
+                Arrays.fill(matchMin, Integer.MAX_VALUE);
+                Arrays.fill(matchUsed, false);
+                do
+                {
+                    matchUsed[j0] = true;
+                    int i0 = matchP[j0], delta = Integer.MAX_VALUE, j1 = 0;
+                    for(int j = 1; j <= m; j++)
+                    {
+                        if(matchUsed[j]) continue;
+                        
+                        int cur = goalDist[i0 - 1][boxes[j - 1]] - matchU[i0] - matchV[j];
+                        if(cur < matchMin[j])
+                        {
+                            matchMin[j] = cur;
+                            matchWay[j] = j0;
+                        }
+                        
+                        if(matchMin[j] < delta)
+                        {
+                            delta = matchMin[j];
+                            j1 = j;
+                        }
+                    }
+                    
+                    for(int j = 0; j <= m; j++)
+                    {
+                        if(matchUsed[j])
+                        {
+                            matchU[matchP[j]] += delta;
+                            matchV[j] -= delta;
+                        }
+                        else
+                        {
+                            matchMin[j] -= delta;
+                        }
+                    }
+                    
+                    j0 = j1;
+                }
+                while(matchP[j0] != 0);
+                
+                do
+                {
+                    int j1 = matchWay[j0];
+                    matchP[j0] = matchP[j1];
+                    j0 = j1;
+                }
+                while(j0 != 0);
+            }
+            
+            int cost = 0;
+            for(int j = 1; j <= m; j++)
+            {
+                if(matchP[j] != 0) cost += goalDist[matchP[j] - 1][boxes[j - 1]];
+            }
+            
+            return Math.min(cost, INF);
+        }
+    }
+    
+    interface Sink
+    {
+        void accept(Node child);
+    }
+    
+    // FUNCTIONS //
+    
+    int toSquare(int x, int y)
+    {
+        return (y + 1) * width + (x + 1);
+    }
+    
+    public Result solve()
+    {
+        Result result = new Result();
+        long start = System.currentTimeMillis();
+        
+        Expander expander = new Expander();
+        TranspositionTable table = new TranspositionTable(1 << 12);
+        final PriorityQueue<Node> open = new PriorityQueue<Node>(ORDER);
+        Sink sink = new Sink()
+        {
+            @Override
+            public void accept(Node child)
+            {
+                open.add(child);
+            }
+        };
+        
+        int[] boxes = startBoxes.clone();
+        Arrays.sort(boxes);
+        
+        int h = expander.heuristic(boxes);
+        if(h < INF) open.add(new Node(boxes, startPlayer, 0, h, null, 0, 0));
+        
+        while(!open.isEmpty())
+        {
+            if((result.nodes & 1023) == 0 && timeLimit > 0
+                && System.currentTimeMillis() - start > timeLimit) break;
+            
+            Node node = open.poll();
+            
+            // Skip states already expanded at no greater cost.
+            long key = expander.explore(node);
+            int seen = table.get(key);
+            if(seen != -1 && seen <= node.g)
+            {
+                expander.expand(node, null);
+                continue;
+            }
+            
+            table.put(key, node.g);
+            result.nodes++;
+            
+            if(node.h == 0)
+            {
+                result.solved = true;
+                result.pushes = node.g;
+                result.moves = moves(node);
+                break;
+            }
+            
+            expander.expand(node, sink);
+        }
+        
+        result.peakTable = table.size();
+        result.millis = System.currentTimeMillis() - start;
+        
+        return result;
+    }
+    
+    int[] pullDistances(int goal)
+    {
+        int[] dist = new int[size];
+        Arrays.fill(dist, INF);
+        
+        // A box at b can be pulled to b + step by a player
+        // standing on b + step, who then steps back once more.
+        ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+        dist[goal] = 0;
+        queue.add(goal);
+        while(!queue.isEmpty())
+        {
+            int b = queue.poll();
+            for(int d = 0; d < 4; d++)
+            {
+                int to = b + steps[d], back = to + steps[d];
+                if(wall[to] || wall[back] || dist[to] != INF) continue;
+                
+                dist[to] = dist[b] + 1;
+                queue.add(to);
+            }
+        }
+        
+        return dist;
+    }
+    
+    // Returns a copy of the boxes with box k moved to the
+    // given square, keeping the copy sorted.
+    static int[] push(int[] boxes, int k, int to)
+    {
+        int[] result = boxes.clone();
+        result[k] = to;
+        
+        while(k > 0 && result[k - 1] > result[k])
+        {
+            result[k] = result[k - 1];
+            result[--k] = to;
+        }
+        
+        while(k < result.length - 1 && result[k + 1] < result[k])
+        {
+            result[k] = result[k + 1];
+            result[++k] = to;
+        }
+        
+        return result;
+    }
+    
+    String moves(Node goal)
+    {
+        // Collect the pushes from the start to the goal.
+        int count = goal.g;
+        Node[] path = new Node[count];
+        for(Node n = goal; n.parent != null; n = n.parent) path[--count] = n;
+        
+        boolean[] boxAt = new boolean[size];
+        for(int b : startBoxes) boxAt[b] = true;
+        
+        // Replay them, walking the player to each push.
+        StringBuilder moves = new StringBuilder();
+        int player = startPlayer;
+        for(Node n : path)
+        {
+            walk(player, n.box - steps[n.dir], boxAt, moves);
+            moves.append(PUSH[n.dir]);
+            
+            boxAt[n.box] = false;
+            boxAt[n.box + steps[n.dir]] = true;
+            player = n.box;
+        }
+        
+        return moves.toString();
+    }
+    
+    void walk(int from, int to, boolean[] boxAt, StringBuilder moves)
+    {
+        // Breadth first search, remembering the step taken into each square.
+        int[] via = new int[size];
+        Arrays.fill(via, -1);
+        
+        ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+        via[from] = 4;
+        queue.add(from);
+        while(!queue.isEmpty() && via[to] == -1)
+        {
+            int p = queue.poll();
+            for(int d = 0; d < 4; d++)
+            {
+                int q = p + steps[d];
+                if(wall[q] || boxAt[q] || via[q] != -1) continue;
+                
+                via[q] = d;
+                queue.add(q);
+            }
+        }
+        
+        StringBuilder path = new StringBuilder();
+        for(int p = to; p != from; p -= steps[via[p]]) path.append(WALK[via[p]]);
+        
+        moves.append(path.reverse());
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ *  Divergence (a Sokoban (or Sokouban if you're a purist) clone)
+ *  Copyright (C) 2020 Czespo
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.czespo.divergence;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+
+// Holds a pre-drawn image of each kind of tile at the current cell size.
+// Images are made compatible with the screen where there is one, so
+// that drawing them is a plain, usually accelerated, copy.
+public class TileCache
+{
+    // STATIC //
+    
+    public static final int WALL = 0;
+    public static final int GOAL = 1;
+    public static final int BOX = 2;
+    public static final int BOX_ON_GOAL = 3;
+    public static final int BOX_DEADLOCKED = 4;
+    public static final int PLAYER = 5;
+    
+    static final int TILE_COUNT = 6;
+    
+    public static BufferedImage createImage(int width, int height, int transparency)
+    {
+        if(!GraphicsEnvironment.isHeadless())
+        {
+            GraphicsConfiguration config = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                .getDefaultScreenDevice().getDefaultConfiguration();
+            
+            return config.createCompatibleImage(width, height, transparency);
+        }
+        
+        return new BufferedImage(width, height, transparency == Transparency.OPAQUE
+            ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+    }
+    
+    // FIELDS //
+    
+    private final BufferedImage[] tiles = new BufferedImage[TILE_COUNT];
+    
+    private int cell = -1;
+    
+    // FUNCTIONS //
+    
+    public BufferedImage get(int tile)
+    {
+        return tiles[tile];
+    }
+    
+    // Redraws the tiles, if the cell size has changed since they were drawn.
+    public void update(int cell)
+    {
+        if(cell == this.cell || cell <= 0) return;
+        
+        this.cell = cell;
+        
+        // Used to draw goals, which need to be comparatively smaller than boxes.
+        int quarter = cell / 4;
+        
+        tiles[WALL] = tile(Color.WHITE, 0);
+        tiles[GOAL] = tile(Color.RED, quarter);
+        tiles[BOX] = tile(Color.RED, 0);
+        tiles[BOX_ON_GOAL] = tile(Color.GREEN, 0);
+        tiles[BOX_DEADLOCKED] = tile(Color.ORANGE, 0);
+        tiles[PLAYER] = tile(Color.BLUE, 0);
+    }
+    
+    // Draws a square of a colour, inset from each side, leaving
+    // a one pixel gap to the right and below as the grid line.
+    private BufferedImage tile(Color color, int inset)
+    {
+        BufferedImage tile = createImage(cell, cell, Transparency.BITMASK);
+        
+        Graphics g = tile.getGraphics();
+        g.setColor(color);
+        g.fillRect(inset, inset, cell - inset * 2 - 1, cell - inset * 2 - 1);
+        g.dispose();
+        
+        return tile;
+    }
+}
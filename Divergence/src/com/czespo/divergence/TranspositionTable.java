@@ -0,0 +1,116 @@
+/**
+ *  Divergence (a Sokoban (or Sokouban if you're a purist) clone)
+ *  Copyright (C) 2020 Czespo
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.czespo.divergence;
+
+public class TranspositionTable
+{
+    // STATIC //
+    
+    static final long EMPTY = 0;
+    
+    // FIELDS //
+    
+    private long[] keys;
+    
+    private int[] values;
+    
+    private int size, mask;
+    
+    // CONSTRUCTORS //
+    
+    public TranspositionTable(int capacity)
+    {
+        // Round the capacity up to a power of two,
+        // so that slots can be found with a mask.
+        int n = 16;
+        while(n < capacity * 2) n <<= 1;
+        
+        keys = new long[n];
+        values = new int[n];
+        mask = n - 1;
+    }
+    
+    // FUNCTIONS //
+    
+    public int size()
+    {
+        return size;
+    }
+    
+    public int get(long key)
+    {
+        // Returns -1 if the key is not present.
+        if(key == EMPTY) key = 1;
+        
+        for(int i = slot(key); ; i = (i + 1) & mask)
+        {
+            if(keys[i] == key) return values[i];
+            if(keys[i] == EMPTY) return -1;
+        }
+    }
+    
+    public void put(long key, int value)
+    {
+        if(key == EMPTY) key = 1;
+        
+        int i = slot(key);
+        while(keys[i] != EMPTY && keys[i] != key) i = (i + 1) & mask;
+        
+        if(keys[i] == EMPTY)
+        {
+            keys[i] = key;
+            
+            // Keep the table at most half full.
+            if(++size * 2 > keys.length)
+            {
+                values[i] = value;
+                grow();
+                return;
+            }
+        }
+        
+        values[i] = value;
+    }
+    
+    private int slot(long key)
+    {
+        return (int) (key ^ (key >>> 32)) & mask;
+    }
+    
+    private void grow()
+    {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldValues.length * 2];
+        mask = keys.length - 1;
+        
+        for(int j = 0; j < oldKeys.length; j++)
+        {
+            if(oldKeys[j] == EMPTY) continue;
+            
+            int i = slot(oldKeys[j]);
+            while(keys[i] != EMPTY) i = (i + 1) & mask;
+            
+            keys[i] = oldKeys[j];
+            values[i] = oldValues[j];
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ *  Slither (a Snake clone)
+ *  Copyright (C) 2020 Czespo
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.czespo.slither;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Benchmarks the snake's tick, as the snake grows, and drawing the game
+// offscreen at several resolutions, with JMH. Build with `mvn package`,
+// then run optionally with the names of the benchmarks to run, and
+// `-rf json` to write the results as JSON:
+// `java -jar bench/target/benchmarks.jar -rf json -rff slither.json tick`.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class SlitherBenchmark
+{
+    // STATIC //
+    
+    // The length the snake is grown to before drawing it.
+    static final int PAINT_LENGTH = 100;
+    
+    // Grows the snake by steering it around a cycle through every cell,
+    // so it eats whatever food appears without ever biting itself. The
+    // cycle runs right and left along the rows, and back up the first column.
+    static void grow(SlitherSimulation simulation, int length)
+    {
+        int width = simulation.width, height = simulation.height;
+        while(simulation.length() < length)
+        {
+            int head = simulation.head(), x = head % width, y = head / width;
+            
+            int direction;
+            if(x == 0) direction = y > 0 ? SlitherSimulation.UP : SlitherSimulation.RIGHT;
+            else if(y % 2 == 0) direction = x < width - 1 ? SlitherSimulation.RIGHT : SlitherSimulation.DOWN;
+            else direction = x > 1 || y == height - 1 ? SlitherSimulation.LEFT : SlitherSimulation.DOWN;
+            
+            simulation.step(direction);
+        }
+    }
+    
+    // INNER CLASSES //
+    
+    // The snake fills the middle row of a board as wide as it is long,
+    // and runs along it, wrapping around the edge. Food can never
+    // land in its path, so it keeps its length throughout.
+    @State(Scope.Thread)
+    public static class Run
+    {
+        @Param({"10", "100", "1000"})
+        public int length;
+        
+        SlitherSimulation simulation;
+        
+        @Setup
+        public void setup()
+        {
+            simulation = new SlitherSimulation(Math.max(length, SlitherSimulation.START_LENGTH), SlitherSimulation.DEFAULT_HEIGHT, 1, length);
+        }
+    }
+    
+    // A grown snake on the default board.
+    @State(Scope.Thread)
+    public static class Paint
+    {
+        @Param({"640x480", "1280x720", "1920x1080", "3840x2160"})
+        public String resolution;
+        
+        Slither slither;
+        
+        BufferedImage image;
+        
+        Graphics g;
+        
+        @Setup
+        public void setup()
+        {
+            int width = Integer.parseInt(resolution.substring(0, resolution.indexOf('x')));
+            int height = Integer.parseInt(resolution.substring(resolution.indexOf('x') + 1));
+            
+            slither = new Slither(width, height);
+            slither.setSize(width, height);
+            grow(slither.getSimulation(), PAINT_LENGTH);
+            
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            g = image.getGraphics();
+        }
+    }
+    
+    // FUNCTIONS //
+    
+    // One step of the game.
+    @Benchmark
+    public int tick(Run state)
+    {
+        return state.simulation.step(SlitherSimulation.RIGHT);
+    }
+    
+    // Drawing the whole panel into an image.
+    @Benchmark
+    public int paint(Paint state)
+    {
+        state.slither.paintComponent(state.g);
+        return state.image.getRGB(state.image.getWidth() / 2, state.image.getHeight() / 2);
+    }
+}
@@ -0,0 +1,445 @@
+/**
+ *  Slither (a Snake clone)
+ *  Copyright (C) 2020 Czespo
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.czespo.slither;
+
+import java.util.Arrays;
+import java.util.Random;
+
+// Slither's rules for many snakes on one large board, for the server.
+// Snakes wrap around the edges, grow by eating food, and share one
+// occupancy grid, so a head that runs into any snake, itself included,
+// is caught in a single lookup. A caught snake is taken off the board,
+// and comes back at its starting length somewhere free, as a bitten
+// snake is trimmed in the single player game.
+//
+// Every snake steps at once: tails leave first, then heads arrive, so a
+// head may follow right behind any tail. Heads that meet on one cell are
+// all caught, and a caught head leaves the food it landed on. What
+// changed for each snake is kept until the next step, so the server
+// can send it out in one batch.
+public class Arena
+{
+    // STATIC //
+    
+    // What happened to a snake during the last step, besides moving.
+    public static final int SPAWNED = 1;
+    public static final int DIED = 2;
+    public static final int LEFT = 4;
+    
+    // How many tries to find a free place for a snake or food
+    // before giving up until the next step.
+    static final int PLACE_TRIES = 32;
+    
+    // Cells the board has per piece of food on it.
+    static final int CELLS_PER_FOOD = 256;
+    
+    // The cells a snake starts on, head first: lying along
+    // a row, facing right, wrapping around the edge.
+    static int spawnCell(int head, int k, int width)
+    {
+        int row = head - head % width;
+        return row + Math.floorMod(head % width - k, width);
+    }
+    
+    // INNER CLASSES //
+    
+    public static class Snake
+    {
+        public final int id;
+        
+        // The body, as a ring buffer of cells, head at `body[head]`.
+        int[] body = new int[16];
+        
+        int head, size, length;
+        
+        int direction, turn;
+        
+        boolean alive;
+        
+        // What happened during the last step, as flags.
+        int events;
+        
+        Snake(int id)
+        {
+            this.id = id;
+        }
+        
+        public int part(int i)
+        {
+            return body[(head + i) % body.length];
+        }
+        
+        public int head()
+        {
+            return body[head];
+        }
+        
+        public int size()
+        {
+            return size;
+        }
+        
+        public int length()
+        {
+            return length;
+        }
+        
+        public int events()
+        {
+            return events;
+        }
+        
+        public boolean isAlive()
+        {
+            return alive;
+        }
+        
+        public int direction()
+        {
+            return direction;
+        }
+    }
+    
+    // FIELDS //
+    
+    public final int width, height;
+    
+    private final Random random;
+    
+    private long ticks;
+    
+    // How many snake parts cover each cell, and whether food lies on it.
+    private final byte[] occupied;
+    
+    private final boolean[] food;
+    
+    // Food on the board, and how much there should be. Food placed
+    // by the last step is at the end, from firstNewFood on.
+    private final int[] foods;
+    
+    private int foodCount, firstNewFood;
+    
+    // Snakes by id. Ids of snakes that left are reused.
+    private Snake[] snakes = new Snake[16];
+    
+    private int snakeCount;
+    
+    // Snakes that have left since the last step, and those that
+    // had left before it, which the last step reports.
+    private Snake[] leaving = new Snake[4], departed = new Snake[4];
+    
+    private int leavingCount, departedCount;
+    
+    // CONSTRUCTORS //
+    
+    public Arena(int width, int height, long seed)
+    {
+        this.width = width;
+        this.height = height;
+        
+        random = new Random(seed);
+        occupied = new byte[width * height];
+        food = new boolean[width * height];
+        foods = new int[Math.max(1, width * height / CELLS_PER_FOOD)];
+        
+        while(foodCount < foods.length && placeFood());
+    }
+    
+    // FUNCTIONS //
+    
+    public long ticks()
+    {
+        return ticks;
+    }
+    
+    // Returns the snake with an id, or null if there is none.
+    public Snake snake(int id)
+    {
+        return id >= 0 && id < snakes.length ? snakes[id] : null;
+    }
+    
+    // The highest id in use, plus one.
+    public int idLimit()
+    {
+        return snakes.length;
+    }
+    
+    public int snakeCount()
+    {
+        return snakeCount;
+    }
+    
+    public int foodCount()
+    {
+        return foodCount;
+    }
+    
+    public int firstNewFood()
+    {
+        return firstNewFood;
+    }
+    
+    public int food(int i)
+    {
+        return foods[i];
+    }
+    
+    public boolean isFood(int cell)
+    {
+        return food[cell];
+    }
+    
+    public boolean isOccupied(int cell)
+    {
+        return occupied[cell] != 0;
+    }
+    
+    // Adds a snake, which appears on the board at the next step.
+    public Snake join()
+    {
+        int id = 0;
+        while(id < snakes.length && snakes[id] != null) id++;
+        if(id == snakes.length) snakes = Arrays.copyOf(snakes, id * 2);
+        
+        Snake snake = new Snake(id);
+        snake.direction = snake.turn = SlitherSimulation.RIGHT;
+        snakes[id] = snake;
+        snakeCount++;
+        
+        return snake;
+    }
+    
+    // Takes a snake off the board. Its leaving is reported by the next step.
+    public void leave(int id)
+    {
+        Snake snake = snake(id);
+        if(snake == null) return;
+        
+        if(snake.alive) clear(snake);
+        snakes[id] = null;
+        snakeCount--;
+        
+        if(leavingCount == leaving.length) leaving = Arrays.copyOf(leaving, leavingCount * 2);
+        leaving[leavingCount++] = snake;
+    }
+    
+    // Sets the direction a snake takes at the next step. Turning
+    // back into its own neck is ignored, as it is for the player.
+    public void turn(int id, int direction)
+    {
+        Snake snake = snake(id);
+        if(snake == null || direction < 0 || direction > 3) return;
+        
+        if(direction != (snake.direction + 2) % 4) snake.turn = direction;
+    }
+    
+    public void step()
+    {
+        ticks++;
+        
+        // Snakes that left since the last step are reported by this one.
+        Snake[] swap = departed;
+        for(int i = 0; i < departedCount; i++) swap[i] = null;
+        departed = leaving;
+        departedCount = leavingCount;
+        leaving = swap;
+        leavingCount = 0;
+        
+        // Tails leave first, unless their snake is about to eat.
+        for(Snake snake : snakes)
+        {
+            if(snake == null) continue;
+            
+            snake.events = 0;
+            if(!snake.alive) continue;
+            
+            snake.direction = snake.turn;
+            if(!food[neighbour(snake.head(), snake.direction)]) removeTail(snake);
+        }
+        
+        // Then every head arrives.
+        for(Snake snake : snakes)
+        {
+            if(snake == null || !snake.alive) continue;
+            
+            int next = neighbour(snake.head(), snake.direction);
+            if(food[next]) snake.length++;
+            
+            addHead(snake, next);
+        }
+        
+        // A head on a cell covered twice has run into something.
+        for(Snake snake : snakes)
+        {
+            if(snake == null || !snake.alive) continue;
+            
+            if(occupied[snake.head()] > 1) snake.events |= DIED;
+        }
+        
+        // Only heads that live eat what they land on.
+        for(Snake snake : snakes)
+        {
+            if(snake == null || !snake.alive) continue;
+            
+            if((snake.events & DIED) != 0) clear(snake);
+            else food[snake.head()] = false;
+        }
+        
+        // Bring back snakes that were caught, or have just joined.
+        for(Snake snake : snakes)
+        {
+            if(snake != null && !snake.alive) spawn(snake);
+        }
+        
+        // Replace the food that was eaten.
+        int kept = 0;
+        for(int i = 0; i < foodCount; i++)
+        {
+            if(food[foods[i]]) foods[kept++] = foods[i];
+        }
+        
+        foodCount = firstNewFood = kept;
+        while(foodCount < foods.length && placeFood());
+    }
+    
+    // Snakes that left before the last step.
+    public int departedCount()
+    {
+        return departedCount;
+    }
+    
+    public Snake departed(int i)
+    {
+        return departed[i];
+    }
+    
+    // Returns the cell one step from another in a direction,
+    // wrapping around the edges of the board.
+    public int neighbour(int cell, int direction)
+    {
+        int x = cell % width + SlitherSimulation.DX[direction], y = cell / width + SlitherSimulation.DY[direction];
+        if(x == width) x = 0;
+        else if(x < 0) x = width - 1;
+        
+        if(y == height) y = 0;
+        else if(y < 0) y = height - 1;
+        
+        return y * width + x;
+    }
+    
+    // A hash of the whole arena, to check a copy of it against.
+    public long stateHash()
+    {
+        long hash = 0xcbf29ce484222325L;
+        hash = (hash ^ ticks) * 0x100000001b3L;
+        for(Snake snake : snakes)
+        {
+            if(snake == null || !snake.alive) continue;
+            
+            hash = (hash ^ snake.id) * 0x100000001b3L;
+            hash = (hash ^ snake.length) * 0x100000001b3L;
+            for(int i = 0; i < snake.size; i++)
+            {
+                hash = (hash ^ snake.part(i)) * 0x100000001b3L;
+            }
+        }
+        
+        for(int cell = 0; cell < food.length; cell++)
+        {
+            if(food[cell]) hash = (hash ^ cell) * 0x100000001b3L;
+        }
+        
+        return hash;
+    }
+    
+    private void spawn(Snake snake)
+    {
+        for(int t = 0; t < PLACE_TRIES; t++)
+        {
+            int head = random.nextInt(occupied.length);
+            
+            boolean clear = true;
+            for(int k = 0; k < SlitherSimulation.START_LENGTH && clear; k++)
+            {
+                int cell = spawnCell(head, k, width);
+                clear = occupied[cell] == 0 && !food[cell];
+            }
+            
+            if(!clear) continue;
+            
+            snake.size = 0;
+            snake.length = SlitherSimulation.START_LENGTH;
+            for(int k = SlitherSimulation.START_LENGTH - 1; k >= 0; k--)
+            {
+                addHead(snake, spawnCell(head, k, width));
+            }
+            
+            snake.direction = snake.turn = SlitherSimulation.RIGHT;
+            snake.alive = true;
+            snake.events |= SPAWNED;
+            
+            return;
+        }
+    }
+    
+    private void clear(Snake snake)
+    {
+        while(snake.size > 0) removeTail(snake);
+        snake.alive = false;
+    }
+    
+    private boolean placeFood()
+    {
+        for(int t = 0; t < PLACE_TRIES; t++)
+        {
+            int cell = random.nextInt(occupied.length);
+            if(occupied[cell] != 0 || food[cell]) continue;
+            
+            food[cell] = true;
+            foods[foodCount++] = cell;
+            return true;
+        }
+        
+        return false;
+    }
+    
+    private void addHead(Snake snake, int cell)
+    {
+        if(snake.size == snake.body.length)
+        {
+            // Unroll the ring into a larger array, head first.
+            int[] body = new int[snake.body.length * 2];
+            for(int i = 0; i < snake.size; i++) body[i] = snake.part(i);
+            snake.body = body;
+            snake.head = 0;
+        }
+        
+        snake.head = (snake.head == 0 ? snake.body.length : snake.head) - 1;
+        snake.body[snake.head] = cell;
+        snake.size++;
+        
+        occupied[cell]++;
+    }
+    
+    private void removeTail(Snake snake)
+    {
+        snake.size--;
+        occupied[snake.part(snake.size)]--;
+    }
+}
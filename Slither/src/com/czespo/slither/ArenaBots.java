@@ -0,0 +1,232 @@
+/**
+ *  Slither (a Snake clone)
+ *  Copyright (C) 2020 Czespo
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.czespo.slither;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Random;
+
+// Puts load on an arena server: many clients on one thread, each
+// joining with a snake, and turning it at random. The bots read just
+// enough of each message to count it, so the server, not they, is
+// what is measured.
+public class ArenaBots
+{
+    // STATIC //
+    
+    // How likely a bot is to turn its snake at each step.
+    static final double TURN_CHANCE = 0.2;
+    
+    public static void main(String[] args) throws IOException
+    {
+        // Connect 100 bots to a server on this machine. Allow `-c` to set
+        // how many, `-h` the host, `-p` the port, `-d` how long to run for,
+        // in seconds, and `-s` the seed: `-c 1000 -p 7777 -d 30`.
+        String host = "127.0.0.1";
+        int port = ArenaProtocol.DEFAULT_PORT, count = 100;
+        double duration = 30;
+        long seed = System.nanoTime();
+        for(int i = 0; i < args.length; i++)
+        {
+            if(args[i].equals("-c") && i + 1 < args.length) count = Integer.parseInt(args[i + 1]);
+            else if(args[i].equals("-h") && i + 1 < args.length) host = args[i + 1];
+            else if(args[i].equals("-p") && i + 1 < args.length) port = Integer.parseInt(args[i + 1]);
+            else if(args[i].equals("-d") && i + 1 < args.length) duration = Double.parseDouble(args[i + 1]);
+            else if(args[i].equals("-s") && i + 1 < args.length) seed = Long.parseLong(args[i + 1]);
+        }
+        
+        ArenaBots bots = new ArenaBots(new InetSocketAddress(host, port), count, seed);
+        bots.run((long) (duration * 1e9));
+        System.out.println(bots);
+    }
+    
+    // INNER CLASSES //
+    
+    static class Bot
+    {
+        final SocketChannel channel;
+        
+        final ByteBuffer in = ByteBuffer.allocate(1 << 16);
+        
+        // A message too large for the buffer, skipped rather than read.
+        int skipping;
+        
+        int id = -1;
+        
+        Bot(SocketChannel channel)
+        {
+            this.channel = channel;
+        }
+    }
+    
+    // FIELDS //
+    
+    private final InetSocketAddress address;
+    
+    private final int count;
+    
+    private final Random random;
+    
+    private Selector selector;
+    
+    // What the bots received, in total.
+    long ticks, snapshots, bytes, deaths;
+    
+    private double seconds;
+    
+    // CONSTRUCTORS //
+    
+    public ArenaBots(InetSocketAddress address, int count, long seed)
+    {
+        this.address = address;
+        this.count = count;
+        
+        random = new Random(seed);
+    }
+    
+    // FUNCTIONS //
+    
+    public void run(long nanos) throws IOException
+    {
+        selector = Selector.open();
+        for(int i = 0; i < count; i++)
+        {
+            SocketChannel channel = SocketChannel.open(address);
+            channel.socket().setTcpNoDelay(true);
+            channel.write(ArenaProtocol.join());
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, new Bot(channel));
+        }
+        
+        long start = System.nanoTime(), end = start + nanos;
+        while(System.nanoTime() < end)
+        {
+            selector.select(Math.max(1, (end - System.nanoTime()) / 1000000));
+            
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while(keys.hasNext())
+            {
+                SelectionKey key = keys.next();
+                keys.remove();
+                
+                Bot bot = (Bot) key.attachment();
+                if(!read(bot)) key.cancel();
+            }
+        }
+        
+        seconds = (System.nanoTime() - start) / 1e9;
+        
+        for(SelectionKey key : selector.keys()) key.channel().close();
+        selector.close();
+    }
+    
+    private boolean read(Bot bot)
+    {
+        try
+        {
+            int read = bot.channel.read(bot.in);
+            if(read < 0)
+            {
+                bot.channel.close();
+                return false;
+            }
+            
+            bytes += read;
+            
+            ByteBuffer in = bot.in;
+            in.flip();
+            while(in.hasRemaining())
+            {
+                if(bot.skipping > 0)
+                {
+                    int skip = Math.min(bot.skipping, in.remaining());
+                    in.position(in.position() + skip);
+                    bot.skipping -= skip;
+                    continue;
+                }
+                
+                if(in.remaining() < 5) break;
+                
+                int length = in.getInt(in.position());
+                if(in.remaining() < 4 + length)
+                {
+                    // Only snapshots outgrow the buffer, and bots need none of them.
+                    if(4 + length > in.capacity())
+                    {
+                        snapshots++;
+                        bot.skipping = 4 + length;
+                        continue;
+                    }
+                    
+                    break;
+                }
+                
+                int end = in.position() + 4 + length;
+                handle(bot, in, in.position() + 4);
+                in.position(end);
+            }
+            
+            in.compact();
+            return true;
+        }
+        catch(IOException e)
+        {
+            return false;
+        }
+    }
+    
+    private void handle(Bot bot, ByteBuffer in, int at) throws IOException
+    {
+        switch(in.get(at))
+        {
+            case ArenaProtocol.WELCOME:
+                bot.id = in.getShort(at + 1);
+                break;
+                
+            case ArenaProtocol.SNAPSHOT:
+                snapshots++;
+                break;
+                
+            case ArenaProtocol.TICK:
+                ticks++;
+                
+                // Find this bot's own snake, to count its deaths.
+                int entries = in.getShort(at + 9) & 0xffff;
+                for(int n = 0, entry = at + 11; n < entries; n++, entry += ArenaProtocol.TICK_ENTRY)
+                {
+                    if(in.getShort(entry) == bot.id && (in.get(entry + 2) & Arena.DIED) != 0) deaths++;
+                }
+                
+                if(random.nextDouble() < TURN_CHANCE) bot.channel.write(ArenaProtocol.turn(random.nextInt(4)));
+                break;
+        }
+    }
+    
+    @Override
+    public String toString()
+    {
+        return String.format("%d bots, %.0f ticks/s each, %.2f MB/s in total, %d snapshots, %d deaths",
+            count, ticks / seconds / count, bytes / seconds / 1e6, snapshots, deaths);
+    }
+}
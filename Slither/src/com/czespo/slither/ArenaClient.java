@@ -0,0 +1,469 @@
+/**
+ *  Slither (a Snake clone)
+ *  Copyright (C) 2020 Czespo
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.czespo.slither;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
+// A client of the arena server, which keeps its own copy of the arena
+// from the messages it receives: the whole of it from a SNAPSHOT, then
+// what changed from each TICK. The copy hashes as Arena.stateHash does,
+// so the two can be checked against each other.
+//
+// Run alone, it joins a server and steers its snake greedily towards
+// the nearest food, as the autopilot does in the single player game.
+public class ArenaClient
+{
+    // STATIC //
+    
+    public static void main(String[] args) throws IOException
+    {
+        // Connect to a server on this machine. Allow `-h` to set the host,
+        // `-p` the port, and `-d` how long to play for, in seconds:
+        // `-h 127.0.0.1 -p 7777 -d 30`.
+        String host = "127.0.0.1";
+        int port = ArenaProtocol.DEFAULT_PORT;
+        double duration = 30;
+        for(int i = 0; i < args.length; i++)
+        {
+            if(args[i].equals("-h") && i + 1 < args.length) host = args[i + 1];
+            else if(args[i].equals("-p") && i + 1 < args.length) port = Integer.parseInt(args[i + 1]);
+            else if(args[i].equals("-d") && i + 1 < args.length) duration = Double.parseDouble(args[i + 1]);
+        }
+        
+        ArenaClient client = new ArenaClient();
+        client.connect(new InetSocketAddress(host, port));
+        client.join();
+        
+        long end = System.nanoTime() + (long) (duration * 1e9);
+        int longest = 0;
+        while(System.nanoTime() < end)
+        {
+            if(client.receive() != ArenaProtocol.TICK) continue;
+            
+            Snake own = client.snake(client.id);
+            if(own == null || !own.alive) continue;
+            
+            longest = Math.max(longest, own.length);
+            client.turn(client.greedyDirection());
+        }
+        
+        client.close();
+        System.out.println("Played " + client.ticks + " steps against " + (client.snakeCount() - 1)
+            + " others, died " + client.deaths + " times, longest " + longest + ".");
+    }
+    
+    // INNER CLASSES //
+    
+    // A snake as the client knows it: its cells, head first.
+    public static class Snake
+    {
+        public final int id;
+        
+        int[] body = new int[16];
+        
+        int head, size, length;
+        
+        boolean alive;
+        
+        Snake(int id)
+        {
+            this.id = id;
+        }
+        
+        public int part(int i)
+        {
+            return body[(head + i) % body.length];
+        }
+        
+        public int head()
+        {
+            return body[head];
+        }
+        
+        public int size()
+        {
+            return size;
+        }
+        
+        public int length()
+        {
+            return length;
+        }
+        
+        public boolean isAlive()
+        {
+            return alive;
+        }
+    }
+    
+    // FIELDS //
+    
+    // Which snake is this client's, and the arena it plays in.
+    int id = -1;
+    
+    int width, height, tickRate;
+    
+    long ticks;
+    
+    private Snake[] snakes = new Snake[16];
+    
+    private byte[] occupied;
+    
+    private boolean[] food;
+    
+    private int foodCount;
+    
+    // How often this client's snake has died.
+    int deaths;
+    
+    private SocketChannel channel;
+    
+    private final ByteBuffer header = ByteBuffer.allocate(4);
+    
+    private ByteBuffer message = ByteBuffer.allocate(256);
+    
+    // FUNCTIONS //
+    
+    public void connect(InetSocketAddress address) throws IOException
+    {
+        channel = SocketChannel.open(address);
+        channel.socket().setTcpNoDelay(true);
+    }
+    
+    public void close() throws IOException
+    {
+        if(channel != null) channel.close();
+    }
+    
+    public void join() throws IOException
+    {
+        write(ArenaProtocol.join());
+    }
+    
+    public void turn(int direction) throws IOException
+    {
+        write(ArenaProtocol.turn(direction));
+    }
+    
+    private void write(ByteBuffer buffer) throws IOException
+    {
+        while(buffer.hasRemaining()) channel.write(buffer);
+    }
+    
+    // Waits for the next message, applies it, and returns its type.
+    public byte receive() throws IOException
+    {
+        header.clear();
+        fill(header);
+        
+        int length = header.getInt(0);
+        if(length < 1 || length > ArenaProtocol.MAX_MESSAGE) throw new IOException("Bad message length " + length);
+        
+        if(message.capacity() < length) message = ByteBuffer.allocate(length);
+        message.clear().limit(length);
+        fill(message);
+        message.flip();
+        
+        return apply(message);
+    }
+    
+    private void fill(ByteBuffer buffer) throws IOException
+    {
+        while(buffer.hasRemaining())
+        {
+            if(channel.read(buffer) < 0) throw new EOFException("Server closed the connection");
+        }
+    }
+    
+    // Applies one message, without its length, and returns its type.
+    public byte apply(ByteBuffer in)
+    {
+        byte type = in.get();
+        switch(type)
+        {
+            case ArenaProtocol.WELCOME:
+                id = in.getShort();
+                width = in.getShort();
+                height = in.getShort();
+                tickRate = in.getShort();
+                
+                occupied = new byte[width * height];
+                food = new boolean[width * height];
+                break;
+                
+            case ArenaProtocol.SNAPSHOT:
+                applySnapshot(in);
+                break;
+                
+            case ArenaProtocol.TICK:
+                applyTick(in);
+                break;
+        }
+        
+        return type;
+    }
+    
+    private void applySnapshot(ByteBuffer in)
+    {
+        for(Snake snake : snakes)
+        {
+            if(snake != null && snake.alive) clear(snake);
+        }
+        
+        Arrays.fill(snakes, null);
+        Arrays.fill(food, false);
+        foodCount = 0;
+        
+        ticks = in.getLong();
+        int count = in.getShort() & 0xffff;
+        for(int n = 0; n < count; n++)
+        {
+            Snake snake = create(in.getShort());
+            snake.length = in.getInt();
+            
+            int size = in.getInt();
+            int[] cells = new int[size];
+            for(int i = 0; i < size; i++) cells[i] = in.getInt();
+            
+            // The cells come head first, so lay them tail first.
+            for(int i = size - 1; i >= 0; i--) addHead(snake, cells[i]);
+            snake.alive = true;
+        }
+        
+        int foods = in.getInt();
+        for(int i = 0; i < foods; i++) addFood(in.getInt());
+    }
+    
+    private void applyTick(ByteBuffer in)
+    {
+        ticks = in.getLong();
+        int count = in.getShort() & 0xffff;
+        for(int n = 0; n < count; n++)
+        {
+            int sid = in.getShort();
+            int events = in.get();
+            int head = in.getInt();
+            int length = in.getInt();
+            
+            Snake snake = snake(sid);
+            if((events & Arena.LEFT) != 0)
+            {
+                if(snake != null && snake.alive) clear(snake);
+                snakes[sid] = null;
+                continue;
+            }
+            
+            if(snake == null) snake = create(sid);
+            
+            if((events & Arena.DIED) != 0)
+            {
+                if(snake.alive) clear(snake);
+                if(sid == id) deaths++;
+            }
+            
+            if((events & Arena.SPAWNED) != 0)
+            {
+                if(snake.alive) clear(snake);
+                
+                for(int k = SlitherSimulation.START_LENGTH - 1; k >= 0; k--)
+                {
+                    addHead(snake, Arena.spawnCell(head, k, width));
+                }
+                
+                snake.alive = true;
+            }
+            else if(head >= 0 && snake.alive)
+            {
+                if(food[head]) removeFood(head);
+                
+                addHead(snake, head);
+                while(snake.size > length) removeTail(snake);
+            }
+            
+            snake.length = length;
+        }
+        
+        int foods = in.getShort() & 0xffff;
+        for(int i = 0; i < foods; i++) addFood(in.getInt());
+    }
+    
+    public Snake snake(int id)
+    {
+        return id >= 0 && id < snakes.length ? snakes[id] : null;
+    }
+    
+    public int snakeCount()
+    {
+        int count = 0;
+        for(Snake snake : snakes)
+        {
+            if(snake != null) count++;
+        }
+        
+        return count;
+    }
+    
+    public int foodCount()
+    {
+        return foodCount;
+    }
+    
+    public boolean isFood(int cell)
+    {
+        return food[cell];
+    }
+    
+    public boolean isOccupied(int cell)
+    {
+        return occupied[cell] != 0;
+    }
+    
+    // A hash of the copy, equal to Arena.stateHash for the same arena.
+    public long stateHash()
+    {
+        long hash = 0xcbf29ce484222325L;
+        hash = (hash ^ ticks) * 0x100000001b3L;
+        for(Snake snake : snakes)
+        {
+            if(snake == null || !snake.alive) continue;
+            
+            hash = (hash ^ snake.id) * 0x100000001b3L;
+            hash = (hash ^ snake.length) * 0x100000001b3L;
+            for(int i = 0; i < snake.size; i++)
+            {
+                hash = (hash ^ snake.part(i)) * 0x100000001b3L;
+            }
+        }
+        
+        for(int cell = 0; cell < food.length; cell++)
+        {
+            if(food[cell]) hash = (hash ^ cell) * 0x100000001b3L;
+        }
+        
+        return hash;
+    }
+    
+    // Picks the free direction that brings the head nearest to the
+    // nearest food, measured across the edges, as the board wraps.
+    int greedyDirection()
+    {
+        Snake own = snake(id);
+        int head = own.head(), hx = head % width, hy = head / width;
+        
+        int target = -1, best = Integer.MAX_VALUE;
+        for(int cell = 0; cell < food.length; cell++)
+        {
+            if(!food[cell]) continue;
+            
+            int distance = distance(hx, hy, cell % width, cell / width);
+            if(distance < best)
+            {
+                best = distance;
+                target = cell;
+            }
+        }
+        
+        int choice = -1;
+        best = Integer.MAX_VALUE;
+        for(int direction = 0; direction < 4; direction++)
+        {
+            int next = neighbour(head, direction);
+            if(occupied[next] != 0) continue;
+            
+            int distance = target < 0 ? 0 : distance(next % width, next / width, target % width, target / width);
+            if(distance < best)
+            {
+                best = distance;
+                choice = direction;
+            }
+        }
+        
+        return choice < 0 ? SlitherSimulation.RIGHT : choice;
+    }
+    
+    private int distance(int x0, int y0, int x1, int y1)
+    {
+        int dx = Math.abs(x0 - x1), dy = Math.abs(y0 - y1);
+        return Math.min(dx, width - dx) + Math.min(dy, height - dy);
+    }
+    
+    private int neighbour(int cell, int direction)
+    {
+        int x = Math.floorMod(cell % width + SlitherSimulation.DX[direction], width);
+        int y = Math.floorMod(cell / width + SlitherSimulation.DY[direction], height);
+        return y * width + x;
+    }
+    
+    private Snake create(int sid)
+    {
+        if(sid >= snakes.length) snakes = Arrays.copyOf(snakes, Math.max(sid + 1, snakes.length * 2));
+        
+        Snake snake = new Snake(sid);
+        snakes[sid] = snake;
+        return snake;
+    }
+    
+    private void clear(Snake snake)
+    {
+        while(snake.size > 0) removeTail(snake);
+        snake.alive = false;
+    }
+    
+    private void addFood(int cell)
+    {
+        if(food[cell]) return;
+        
+        food[cell] = true;
+        foodCount++;
+    }
+    
+    private void removeFood(int cell)
+    {
+        food[cell] = false;
+        foodCount--;
+    }
+    
+    private void addHead(Snake snake, int cell)
+    {
+        if(snake.size == snake.body.length)
+        {
+            int[] body = new int[snake.body.length * 2];
+            for(int i = 0; i < snake.size; i++) body[i] = snake.part(i);
+            snake.body = body;
+            snake.head = 0;
+        }
+        
+        snake.head = (snake.head == 0 ? snake.body.length : snake.head) - 1;
+        snake.body[snake.head] = cell;
+        snake.size++;
+        
+        occupied[cell]++;
+    }
+    
+    private void removeTail(Snake snake)
+    {
+        snake.size--;
+        occupied[snake.part(snake.size)]--;
+    }
+}
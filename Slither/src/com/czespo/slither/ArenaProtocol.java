@@ -0,0 +1,157 @@
+/**
+ *  Slither (a Snake clone)
+ *  Copyright (C) 2020 Czespo
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.czespo.slither;
+
+import java.nio.ByteBuffer;
+
+// The messages between the arena server and its clients. Each message
+// is its length in bytes as an int, then a type byte and its fields,
+// big-endian, as ByteBuffer writes them.
+//
+// Clients send:
+//     JOIN
+//     TURN      byte direction
+//
+// The server sends, once a client's snake is on the board:
+//     WELCOME   short id, short width, short height, short ticks per second
+//     SNAPSHOT  long tick, short snakes, then for each: short id, int length,
+//               int size, then size cells, head first; int foods, then cells
+//
+// and then after every step, to every client:
+//     TICK      long tick, short snakes, then for each: short id, byte
+//               events, int head, int length; short foods, then cells
+//
+// A TICK lists every snake that is alive, or changed, in the step: one
+// that died, spawned or left. Snakes that left come first. A snake that
+// spawned lies as Arena lays it out, behind its head; any other snake
+// that lives just moved its head, eating any food there, and keeps as
+// many parts as its length. The foods are those placed by the step.
+public final class ArenaProtocol
+{
+    // STATIC //
+    
+    public static final byte JOIN = 1;
+    public static final byte TURN = 2;
+    
+    public static final byte WELCOME = 16;
+    public static final byte SNAPSHOT = 17;
+    public static final byte TICK = 18;
+    
+    public static final int DEFAULT_PORT = 7777;
+    
+    // The longest message either side accepts, a guard against garbage.
+    public static final int MAX_MESSAGE = 1 << 24;
+    
+    static final int TICK_ENTRY = 2 + 1 + 4 + 4;
+    
+    public static ByteBuffer join()
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(5);
+        buffer.putInt(1).put(JOIN).flip();
+        return buffer;
+    }
+    
+    public static ByteBuffer turn(int direction)
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(6);
+        buffer.putInt(2).put(TURN).put((byte) direction).flip();
+        return buffer;
+    }
+    
+    public static ByteBuffer welcome(Arena arena, int id, int tickRate)
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(13);
+        buffer.putInt(9).put(WELCOME).putShort((short) id)
+            .putShort((short) arena.width).putShort((short) arena.height).putShort((short) tickRate).flip();
+        return buffer;
+    }
+    
+    public static ByteBuffer snapshot(Arena arena)
+    {
+        int snakes = 0, size = 4 + 1 + 8 + 2 + 4 + 4 * arena.foodCount();
+        for(int id = 0; id < arena.idLimit(); id++)
+        {
+            Arena.Snake snake = arena.snake(id);
+            if(snake == null || !snake.isAlive()) continue;
+            
+            snakes++;
+            size += 2 + 4 + 4 + 4 * snake.size();
+        }
+        
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(size - 4).put(SNAPSHOT).putLong(arena.ticks()).putShort((short) snakes);
+        for(int id = 0; id < arena.idLimit(); id++)
+        {
+            Arena.Snake snake = arena.snake(id);
+            if(snake == null || !snake.isAlive()) continue;
+            
+            buffer.putShort((short) id).putInt(snake.length()).putInt(snake.size());
+            for(int i = 0; i < snake.size(); i++) buffer.putInt(snake.part(i));
+        }
+        
+        buffer.putInt(arena.foodCount());
+        for(int i = 0; i < arena.foodCount(); i++) buffer.putInt(arena.food(i));
+        
+        buffer.flip();
+        return buffer;
+    }
+    
+    // Encodes the last step. The result is ready to read, and may
+    // be shared between clients through duplicates.
+    public static ByteBuffer tick(Arena arena)
+    {
+        int entries = arena.departedCount();
+        for(int id = 0; id < arena.idLimit(); id++)
+        {
+            Arena.Snake snake = arena.snake(id);
+            if(snake != null && (snake.isAlive() || snake.events() != 0)) entries++;
+        }
+        
+        int foods = arena.foodCount() - arena.firstNewFood();
+        int size = 4 + 1 + 8 + 2 + entries * TICK_ENTRY + 2 + 4 * foods;
+        
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(size - 4).put(TICK).putLong(arena.ticks()).putShort((short) entries);
+        
+        // Snakes that left come first, as their ids may be in use again.
+        for(int i = 0; i < arena.departedCount(); i++)
+        {
+            buffer.putShort((short) arena.departed(i).id).put((byte) Arena.LEFT).putInt(-1).putInt(0);
+        }
+        
+        for(int id = 0; id < arena.idLimit(); id++)
+        {
+            Arena.Snake snake = arena.snake(id);
+            if(snake == null || !(snake.isAlive() || snake.events() != 0)) continue;
+            
+            buffer.putShort((short) id).put((byte) snake.events())
+                .putInt(snake.isAlive() ? snake.head() : -1).putInt(snake.length());
+        }
+        
+        buffer.putShort((short) foods);
+        for(int i = arena.firstNewFood(); i < arena.foodCount(); i++) buffer.putInt(arena.food(i));
+        
+        buffer.flip();
+        return buffer;
+    }
+    
+    // CONSTRUCTORS //
+    
+    private ArenaProtocol() {}
+}
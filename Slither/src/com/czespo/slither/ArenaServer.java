@@ -0,0 +1,464 @@
+/**
+ *  Slither (a Snake clone)
+ *  Copyright (C) 2020 Czespo
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.czespo.slither;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+// Runs an Arena without a window, and serves it to clients over
+// non-blocking sockets, all on one thread. Clients send turns, which take
+// effect at the next step. After each step, one TICK message is encoded
+// and queued for every client; see ArenaProtocol.
+//
+// Each step is meant to be done within a time budget. Stepping and
+// encoding take the same time however many clients there are, but
+// writing to each does not, so writing stops once the budget is spent,
+// and the selector finishes it before the next step. A client that falls
+// too far behind is dropped rather than buffered without end.
+public class ArenaServer implements Runnable
+{
+    // STATIC //
+    
+    static final int DEFAULT_SIZE = 256;
+    static final int TICK_RATE = 20;
+    
+    // The most bytes queued for a client before it is dropped.
+    static final int MAX_BACKLOG = 4 << 20;
+    
+    // How far behind the server may fall, in steps, before it
+    // gives up on catching up and skips ahead instead.
+    static final int MAX_CATCH_UP = 5;
+    
+    // How often statistics are printed, in seconds.
+    static final int REPORT_INTERVAL = 5;
+    
+    public static void main(String[] args) throws IOException
+    {
+        // Serve an arena on the loopback interface, or on every interface
+        // with `-a`. Allow `-p` to set the port, `-b` the board size, `-r`
+        // the steps per second, `-t` the budget for each step in
+        // milliseconds, and `-s` the seed: `-p 7777 -b 256 256 -r 20 -t 10`.
+        int port = ArenaProtocol.DEFAULT_PORT, width = DEFAULT_SIZE, height = DEFAULT_SIZE, tickRate = TICK_RATE;
+        double budget = 0;
+        long seed = System.nanoTime();
+        boolean anyAddress = false;
+        for(int i = 0; i < args.length; i++)
+        {
+            if(args[i].equals("-p") && i + 1 < args.length) port = Integer.parseInt(args[i + 1]);
+            else if(args[i].equals("-r") && i + 1 < args.length) tickRate = Integer.parseInt(args[i + 1]);
+            else if(args[i].equals("-t") && i + 1 < args.length) budget = Double.parseDouble(args[i + 1]);
+            else if(args[i].equals("-s") && i + 1 < args.length) seed = Long.parseLong(args[i + 1]);
+            else if(args[i].equals("-a")) anyAddress = true;
+            else if(args[i].equals("-b") && i + 2 < args.length)
+            {
+                width = Integer.parseInt(args[i + 1]);
+                height = Integer.parseInt(args[i + 2]);
+            }
+        }
+        
+        ArenaServer server = new ArenaServer(new Arena(width, height, seed), tickRate);
+        if(budget > 0) server.budgetNanos = (long) (budget * 1000000);
+        server.bind(anyAddress ? new InetSocketAddress(port) : new InetSocketAddress("127.0.0.1", port));
+        
+        System.out.println("Serving a " + width + "x" + height + " arena on port " + port + ", " + tickRate + " steps per second.");
+        server.run();
+    }
+    
+    // INNER CLASSES //
+    
+    class Client
+    {
+        final SocketChannel channel;
+        
+        final SelectionKey key;
+        
+        // Bytes read but not yet parsed into a whole message.
+        ByteBuffer in = ByteBuffer.allocate(64);
+        
+        final ArrayDeque<ByteBuffer> out = new ArrayDeque<ByteBuffer>();
+        
+        long backlog;
+        
+        // The client's snake, once it has joined, and whether it has
+        // been welcomed, which waits for the snake to be on the board.
+        Arena.Snake snake;
+        
+        boolean welcomed;
+        
+        Client(SocketChannel channel, SelectionKey key)
+        {
+            this.channel = channel;
+            this.key = key;
+        }
+        
+        void send(ByteBuffer message)
+        {
+            out.add(message);
+            backlog += message.remaining();
+        }
+        
+        // Writes as much as the socket takes, and asks the selector
+        // to say when it can take more, if anything is left.
+        void flush() throws IOException
+        {
+            while(!out.isEmpty())
+            {
+                ByteBuffer message = out.peek();
+                backlog -= channel.write(message);
+                if(message.hasRemaining()) break;
+                
+                out.poll();
+            }
+            
+            key.interestOps(out.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+    
+    // FIELDS //
+    
+    final Arena arena;
+    
+    final int tickRate;
+    
+    final long tickNanos;
+    
+    // How long each step may take, stepping, encoding and writing.
+    long budgetNanos;
+    
+    private Selector selector;
+    
+    private ServerSocketChannel server;
+    
+    private final List<Client> clients = new ArrayList<Client>();
+    
+    private volatile boolean running;
+    
+    // How long each step took, and how many went over budget.
+    final FrameTimer stepTimer = new FrameTimer();
+    
+    long overruns, skipped, bytesQueued;
+    
+    // CONSTRUCTORS //
+    
+    public ArenaServer(Arena arena, int tickRate)
+    {
+        this.arena = arena;
+        this.tickRate = tickRate;
+        
+        tickNanos = 1000000000L / tickRate;
+        budgetNanos = tickNanos / 2;
+    }
+    
+    // FUNCTIONS //
+    
+    public void bind(InetSocketAddress address) throws IOException
+    {
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.configureBlocking(false);
+        server.socket().setReuseAddress(true);
+        server.socket().bind(address);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+    }
+    
+    public int getPort()
+    {
+        return server.socket().getLocalPort();
+    }
+    
+    public void stop()
+    {
+        running = false;
+        if(selector != null) selector.wakeup();
+    }
+    
+    @Override
+    public void run()
+    {
+        running = true;
+        
+        long next = System.nanoTime() + tickNanos, report = System.nanoTime() + REPORT_INTERVAL * 1000000000L;
+        try
+        {
+            while(running)
+            {
+                long now = System.nanoTime();
+                if(now >= next)
+                {
+                    step();
+                    
+                    next += tickNanos;
+                    if(now - next > MAX_CATCH_UP * tickNanos)
+                    {
+                        skipped += (now - next) / tickNanos;
+                        next = now + tickNanos;
+                    }
+                }
+                
+                if(now >= report)
+                {
+                    System.out.println(this);
+                    report += REPORT_INTERVAL * 1000000000L;
+                }
+                
+                long wait = (next - System.nanoTime()) / 1000000;
+                if(wait > 0) selector.select(wait);
+                else selector.selectNow();
+                
+                handle();
+            }
+        }
+        catch(IOException e)
+        {
+            System.err.println("Arena server stopped: " + e.getMessage());
+        }
+        finally
+        {
+            close();
+        }
+    }
+    
+    // Steps the arena, and sends what changed to every client.
+    void step()
+    {
+        long start = System.nanoTime();
+        arena.step();
+        
+        ByteBuffer tick = ArenaProtocol.tick(arena);
+        for(int i = 0; i < clients.size(); i++)
+        {
+            Client client = clients.get(i);
+            if(client.welcomed)
+            {
+                client.send(tick.duplicate());
+                bytesQueued += tick.remaining();
+            }
+            else if(client.snake != null && client.snake.isAlive())
+            {
+                // Now the snake is on the board, tell the client which it
+                // is, and show it the whole arena; ticks follow from here.
+                ByteBuffer snapshot = ArenaProtocol.snapshot(arena);
+                client.send(ArenaProtocol.welcome(arena, client.snake.id, tickRate));
+                client.send(snapshot);
+                bytesQueued += snapshot.remaining();
+                client.welcomed = true;
+            }
+        }
+        
+        // Write to clients while the budget lasts.
+        for(int i = 0; i < clients.size(); i++)
+        {
+            Client client = clients.get(i);
+            if(client.backlog > MAX_BACKLOG)
+            {
+                disconnect(client);
+                i--;
+                continue;
+            }
+            
+            if(System.nanoTime() - start >= budgetNanos)
+            {
+                client.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+            else if(!flushOrDrop(client))
+            {
+                // The client was dropped, so the next one is now at this index.
+                i--;
+            }
+        }
+        
+        long nanos = System.nanoTime() - start;
+        stepTimer.record(nanos);
+        if(nanos > budgetNanos) overruns++;
+    }
+    
+    private void handle() throws IOException
+    {
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while(keys.hasNext())
+        {
+            SelectionKey key = keys.next();
+            keys.remove();
+            
+            if(!key.isValid()) continue;
+            
+            if(key.isAcceptable())
+            {
+                accept();
+                continue;
+            }
+            
+            Client client = (Client) key.attachment();
+            if(key.isReadable() && !read(client)) continue;
+            if(key.isValid() && key.isWritable()) flushOrDrop(client);
+        }
+    }
+    
+    private void accept() throws IOException
+    {
+        SocketChannel channel;
+        while((channel = server.accept()) != null)
+        {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            Client client = new Client(channel, key);
+            key.attach(client);
+            clients.add(client);
+        }
+    }
+    
+    // Reads and handles whole messages. Returns false
+    // if the client is gone, or sent something invalid.
+    private boolean read(Client client)
+    {
+        try
+        {
+            if(client.channel.read(client.in) < 0)
+            {
+                disconnect(client);
+                return false;
+            }
+            
+            ByteBuffer in = client.in;
+            in.flip();
+            while(in.remaining() >= 4)
+            {
+                int length = in.getInt(in.position());
+                if(length < 1 || length > ArenaProtocol.MAX_MESSAGE)
+                {
+                    disconnect(client);
+                    return false;
+                }
+                
+                if(in.remaining() < 4 + length)
+                {
+                    // Make room for a message larger than the buffer.
+                    if(4 + length > in.capacity())
+                    {
+                        ByteBuffer larger = ByteBuffer.allocate(4 + length);
+                        larger.put(in);
+                        larger.flip();
+                        client.in = in = larger;
+                    }
+                    
+                    break;
+                }
+                
+                int end = in.position() + 4 + length;
+                in.position(in.position() + 4);
+                handle(client, in, end);
+                in.position(end);
+            }
+            
+            in.compact();
+            return true;
+        }
+        catch(IOException e)
+        {
+            disconnect(client);
+            return false;
+        }
+    }
+    
+    private void handle(Client client, ByteBuffer in, int end)
+    {
+        byte type = in.get();
+        switch(type)
+        {
+            case ArenaProtocol.JOIN:
+                if(client.snake == null) client.snake = arena.join();
+                break;
+                
+            case ArenaProtocol.TURN:
+                if(client.snake != null && in.position() < end) arena.turn(client.snake.id, in.get());
+                break;
+        }
+    }
+    
+    // Returns whether the client is still connected.
+    private boolean flushOrDrop(Client client)
+    {
+        try
+        {
+            client.flush();
+            return true;
+        }
+        catch(IOException e)
+        {
+            disconnect(client);
+            return false;
+        }
+    }
+    
+    private void disconnect(Client client)
+    {
+        if(!clients.remove(client)) return;
+        
+        if(client.snake != null) arena.leave(client.snake.id);
+        
+        client.key.cancel();
+        try
+        {
+            client.channel.close();
+        }
+        catch(IOException e)
+        {
+            // Already gone.
+        }
+    }
+    
+    private void close()
+    {
+        for(Client client : new ArrayList<Client>(clients)) disconnect(client);
+        
+        try
+        {
+            if(server != null) server.close();
+            if(selector != null) selector.close();
+        }
+        catch(IOException e)
+        {
+            // Nothing left to do.
+        }
+    }
+    
+    public int clientCount()
+    {
+        return clients.size();
+    }
+    
+    @Override
+    public String toString()
+    {
+        return String.format("%d clients, %d snakes, step p50 %.3f ms, p99 %.3f ms, max %.3f ms, %d over %.1f ms budget, %d skipped, %.1f MB sent",
+            clients.size(), arena.snakeCount(), stepTimer.percentileMillis(0.5), stepTimer.percentileMillis(0.99),
+            stepTimer.maxMillis(), overruns, budgetNanos / 1e6, skipped, bytesQueued / 1e6);
+    }
+}
@@ -0,0 +1,303 @@
+/**
+ *  Slither (a Snake clone)
+ *  Copyright (C) 2020 Czespo
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.czespo.slither;
+
+// Steers towards the food along a shortest path, but only when the
+// snake could still reach its own tail after eating, so that it never
+// walls itself in. Otherwise it follows its tail until a safe path opens.
+//
+// The distance field towards the food is kept between ticks. While the
+// snake follows it, the cells ahead stay free (only the tail moves out of
+// the way), so the field only needs rebuilding when the food moves or the
+// way ahead is blocked. The same holds for the distance field towards
+// the tail while following it, and an unsafe plan is retried after a
+// delay that doubles each time, so most ticks need no search at all.
+// All search space is allocated once per board.
+public class Autopilot implements SlitherPolicy
+{
+    // FIELDS //
+    
+    // The distance field towards the food, and the cells it covers.
+    private int[] dist, seen;
+    
+    // Scratch space for checking plans, kept apart so that the field survives it.
+    private int[] mark, queue, path;
+    
+    // The distance field towards the tail, and the cells it covers.
+    private int[] tailDist, tailSeen;
+    
+    private int stamp;
+    
+    // Stamp of the current distance field towards the tail,
+    // and how far from the tail it first sent the head.
+    private int tailStamp, tailStart;
+    
+    // Stamp of the current distance field towards the
+    // food, and the food it was built for (-2 if none).
+    private int fieldStamp, fieldFood = -2;
+    
+    // Whether the path to the food has been checked to be safe.
+    private boolean planSafe;
+    
+    // While the plan is unsafe, the tick to try it again on,
+    // and how long to wait after that if it is still unsafe.
+    private long retryTick;
+    private int retryDelay;
+    
+    // FUNCTIONS //
+    
+    @Override
+    public int direction(SlitherSimulation simulation, int heading)
+    {
+        if(dist == null || dist.length != simulation.width * simulation.height)
+        {
+            int cells = simulation.width * simulation.height;
+            dist = new int[cells];
+            seen = new int[cells];
+            mark = new int[cells];
+            tailDist = new int[cells];
+            tailSeen = new int[cells];
+            queue = new int[cells];
+            path = new int[cells];
+            fieldFood = -2;
+        }
+        
+        int head = simulation.head(), food = simulation.food();
+        if(food != fieldFood) retryDelay = 1;
+        if(food != fieldFood || !planSafe && simulation.ticks() >= retryTick)
+        {
+            fieldFood = food;
+            tailStamp = -1;
+            planSafe = food >= 0 && buildField(simulation, food, head) && checkPlan(simulation, food);
+            if(!planSafe)
+            {
+                // The tail has to move out of the way before the plan
+                // can become safe, which takes longer the longer the snake.
+                retryTick = simulation.ticks() + retryDelay;
+                retryDelay = Math.min(2 * retryDelay, simulation.width + simulation.height);
+            }
+        }
+        
+        if(planSafe)
+        {
+            int d = downhill(simulation, head, food);
+            if(d >= 0) return d;
+            
+            // The way ahead is blocked, so rebuild the plan on the next tick.
+            planSafe = false;
+            retryTick = simulation.ticks() + 1;
+        }
+        
+        return followTail(simulation, heading);
+    }
+    
+    // Breadth first search from the food over free cells, stopping
+    // once the head is found. Returns whether the head was found.
+    private boolean buildField(SlitherSimulation simulation, int food, int head)
+    {
+        fieldStamp = ++stamp;
+        
+        int first = 0, last = 0;
+        dist[food] = 0;
+        seen[food] = fieldStamp;
+        queue[last++] = food;
+        while(first < last)
+        {
+            int p = queue[first++];
+            for(int d = 0; d < 4; d++)
+            {
+                int q = simulation.neighbour(p, d);
+                if(seen[q] == fieldStamp) continue;
+                
+                if(q == head)
+                {
+                    dist[q] = dist[p] + 1;
+                    seen[q] = fieldStamp;
+                    return true;
+                }
+                
+                if(simulation.isOccupied(q)) continue;
+                
+                dist[q] = dist[p] + 1;
+                seen[q] = fieldStamp;
+                queue[last++] = q;
+            }
+        }
+        
+        return false;
+    }
+    
+    // Returns the direction one step closer to the food, or -1.
+    private int downhill(SlitherSimulation simulation, int cell, int food)
+    {
+        if(seen[cell] != fieldStamp) return -1;
+        
+        for(int d = 0; d < 4; d++)
+        {
+            int q = simulation.neighbour(cell, d);
+            if(q == food) return d;
+            
+            if(seen[q] == fieldStamp && dist[q] == dist[cell] - 1 && !simulation.isOccupied(q)) return d;
+        }
+        
+        return -1;
+    }
+    
+    // Plays the path to the food forward on the side, and checks that
+    // the snake's new head could then still reach its new tail.
+    private boolean checkPlan(SlitherSimulation simulation, int food)
+    {
+        // Collect the path, from the cell after the head to the food.
+        int length = dist[simulation.head()], cell = simulation.head();
+        for(int i = 0; i < length; i++)
+        {
+            int d = downhill(simulation, cell, food);
+            if(d < 0) return false;
+            
+            cell = simulation.neighbour(cell, d);
+            path[i] = cell;
+        }
+        
+        // After eating, the body is the path walked backwards from the food,
+        // then as much of the current body as still fits.
+        int size = simulation.size() + 1, body = ++stamp, tail;
+        int fromPath = Math.min(length, size);
+        for(int i = 0; i < fromPath; i++) mark[path[length - 1 - i]] = body;
+        
+        tail = path[length - fromPath];
+        for(int i = 0; i < size - fromPath; i++)
+        {
+            tail = simulation.part(i);
+            mark[tail] = body;
+        }
+        
+        if(tail == food) return true;
+        
+        // Search from the new head for the new tail. Everything
+        // else the snake covered after eating blocks the way.
+        int first = 0, last = 0, search = ++stamp;
+        queue[last++] = food;
+        while(first < last)
+        {
+            int p = queue[first++];
+            for(int d = 0; d < 4; d++)
+            {
+                int q = simulation.neighbour(p, d);
+                if(q == tail) return true;
+                
+                // Every cell of the old body not marked as part of the
+                // new one is left behind while walking the path, so is free.
+                if(mark[q] == body || mark[q] == search) continue;
+                
+                mark[q] = search;
+                queue[last++] = q;
+            }
+        }
+        
+        return false;
+    }
+    
+    // Steps towards the cell, of those next to the head, that
+    // is furthest from the tail while still able to reach it.
+    //
+    // The field is built from where the tail was at the time, and then
+    // followed downhill. The cells on the way were free then, and the
+    // head has not been on them since, so they are still free (unless
+    // the tail has yet to leave the last one). The field is rebuilt once
+    // the head is half way down it, as heading straight for the tail wastes
+    // the room the snake has, or when the plan towards the food is rebuilt.
+    private int followTail(SlitherSimulation simulation, int heading)
+    {
+        int tail = simulation.part(simulation.size() - 1), head = simulation.head();
+        
+        if(tailSeen[head] == tailStamp && 2 * tailDist[head] > tailStart)
+        {
+            for(int d = 0; d < 4; d++)
+            {
+                int q = simulation.neighbour(head, d);
+                if(tailSeen[q] == tailStamp && tailDist[q] == tailDist[head] - 1 && isFree(simulation, q, tail)) return d;
+            }
+        }
+        
+        // Count the cells next to the head that could be stepped on,
+        // so that the search can stop once it has found them all.
+        int wanted = 0;
+        for(int d = 0; d < 4; d++)
+        {
+            if(isFree(simulation, simulation.neighbour(head, d), tail)) wanted++;
+        }
+        
+        tailStamp = ++stamp;
+        
+        int first = 0, last = 0;
+        tailDist[tail] = 0;
+        tailSeen[tail] = tailStamp;
+        queue[last++] = tail;
+        if(isFree(simulation, tail, tail) && isNextTo(simulation, head, tail)) wanted--;
+        while(first < last && wanted > 0)
+        {
+            int p = queue[first++];
+            for(int d = 0; d < 4; d++)
+            {
+                int q = simulation.neighbour(p, d);
+                if(tailSeen[q] == tailStamp || simulation.isOccupied(q)) continue;
+                
+                tailDist[q] = tailDist[p] + 1;
+                tailSeen[q] = tailStamp;
+                queue[last++] = q;
+                
+                if(isNextTo(simulation, head, q)) wanted--;
+            }
+        }
+        
+        int best = -1, bestDist = -1, fallback = heading;
+        for(int d = 0; d < 4; d++)
+        {
+            int q = simulation.neighbour(head, d);
+            if(!isFree(simulation, q, tail)) continue;
+            
+            fallback = d;
+            if(tailSeen[q] == tailStamp && tailDist[q] > bestDist)
+            {
+                best = d;
+                bestDist = tailDist[q];
+            }
+        }
+        
+        tailStart = bestDist;
+        return best >= 0 ? best : fallback;
+    }
+    
+    // Whether the head could step on a cell this tick.
+    // The tail moves away this tick, unless the snake eats.
+    private static boolean isFree(SlitherSimulation simulation, int cell, int tail)
+    {
+        return !simulation.isOccupied(cell) || cell == tail && cell != simulation.food();
+    }
+    
+    private static boolean isNextTo(SlitherSimulation simulation, int a, int b)
+    {
+        for(int d = 0; d < 4; d++)
+        {
+            if(simulation.neighbour(a, d) == b) return true;
+        }
+        
+        return false;
+    }
+}
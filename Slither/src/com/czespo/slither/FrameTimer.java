@@ -0,0 +1,124 @@
+/**
+ *  Slither (a Snake clone)
+ *  Copyright (C) 2020 Czespo
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.czespo.slither;
+
+// Keeps statistics on how long frames take to draw. Times are counted in
+// buckets a sixteenth of a power of two wide, so percentiles are kept to
+// within about six percent, in a fixed amount of memory.
+public class FrameTimer
+{
+    // STATIC //
+    
+    static final int SUB_BUCKETS = 32;
+    static final int HALF = SUB_BUCKETS / 2;
+    
+    // The number of bits below which times are counted exactly.
+    static final int SUB_BITS = 5;
+    
+    static int bucket(long nanos)
+    {
+        if(nanos < SUB_BUCKETS) return (int) nanos;
+        
+        int shift = 63 - Long.numberOfLeadingZeros(nanos) - (SUB_BITS - 1);
+        return SUB_BUCKETS + (shift - 1) * HALF + (int) (nanos >> shift) - HALF;
+    }
+    
+    // The longest time counted in a bucket.
+    static long highest(int bucket)
+    {
+        if(bucket < SUB_BUCKETS) return bucket;
+        
+        int shift = (bucket - SUB_BUCKETS) / HALF + 1;
+        long sub = (bucket - SUB_BUCKETS) % HALF + HALF;
+        return ((sub + 1) << shift) - 1;
+    }
+    
+    // FIELDS //
+    
+    private final long[] counts = new long[SUB_BUCKETS + (64 - SUB_BITS) * HALF];
+    
+    private long count, total, max;
+    
+    private double squares;
+    
+    // FUNCTIONS //
+    
+    public synchronized void record(long nanos)
+    {
+        nanos = Math.max(0, nanos);
+        
+        counts[bucket(nanos)]++;
+        count++;
+        total += nanos;
+        squares += (double) nanos * nanos;
+        max = Math.max(max, nanos);
+    }
+    
+    public synchronized long count()
+    {
+        return count;
+    }
+    
+    public synchronized double meanMillis()
+    {
+        return count == 0 ? 0 : total / 1e6 / count;
+    }
+    
+    public synchronized double deviationMillis()
+    {
+        if(count == 0) return 0;
+        
+        double mean = (double) total / count;
+        return Math.sqrt(Math.max(0, squares / count - mean * mean)) / 1e6;
+    }
+    
+    public synchronized double maxMillis()
+    {
+        return max / 1e6;
+    }
+    
+    public synchronized double totalMillis()
+    {
+        return total / 1e6;
+    }
+    
+    // The time that the given fraction of frames took at most,
+    // rounded up to the end of its bucket, but never over the max.
+    public synchronized double percentileMillis(double fraction)
+    {
+        if(count == 0) return 0;
+        
+        long rank = Math.max(1, (long) Math.ceil(fraction * count - 1e-9));
+        long seen = 0;
+        for(int i = 0; i < counts.length; i++)
+        {
+            seen += counts[i];
+            if(seen >= rank) return Math.min(highest(i), max) / 1e6;
+        }
+        
+        return max / 1e6;
+    }
+    
+    @Override
+    public String toString()
+    {
+        return String.format("%d frames, mean %.3f ms, p50 %.3f ms, p99 %.3f ms, max %.3f ms",
+            count(), meanMillis(), percentileMillis(0.5), percentileMillis(0.99), maxMillis());
+    }
+}
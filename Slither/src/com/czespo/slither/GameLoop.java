@@ -0,0 +1,170 @@
+/**
+ *  Slither (a Snake clone)
+ *  Copyright (C) 2020 Czespo
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.czespo.slither;
+
+import java.util.concurrent.locks.LockSupport;
+
+// Runs game logic at a fixed rate on a thread of its own, and asks for
+// frames in between, at most at a capped rate. Each frame is told how far
+// it is between the last tick and the next, so it can interpolate.
+public class GameLoop implements Runnable
+{
+    // STATIC //
+    
+    // After this many ticks in a row without a frame, the loop gives up
+    // catching up and drops the backlog, rather than spiralling.
+    static final int MAX_CATCH_UP = 5;
+    
+    // INNER CLASSES //
+    
+    public interface Game
+    {
+        void tick();
+        
+        // Alpha is how far, from 0 to 1, the time is between ticks.
+        void render(double alpha);
+    }
+    
+    // FIELDS //
+    
+    private final Game game;
+    
+    private final long tickNanos, frameNanos;
+    
+    private volatile boolean running;
+    
+    // Tick statistics. Lateness is how long after its
+    // scheduled time a tick actually ran.
+    private volatile long ticks, frames, startTime;
+    
+    private volatile double latenessSum, latenessSquares, latenessMax;
+    
+    // CONSTRUCTORS //
+    
+    public GameLoop(Game game, double tickRate, double frameRate)
+    {
+        this.game = game;
+        tickNanos = (long) (1e9 / tickRate);
+        frameNanos = frameRate > 0 ? (long) (1e9 / frameRate) : 0;
+    }
+    
+    // FUNCTIONS //
+    
+    public void start()
+    {
+        running = true;
+        
+        Thread thread = new Thread(this, "Game loop");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    public void stop()
+    {
+        running = false;
+    }
+    
+    @Override
+    public void run()
+    {
+        startTime = System.nanoTime();
+        long nextTick = startTime + tickNanos, nextFrame = startTime;
+        
+        while(running)
+        {
+            long now = System.nanoTime();
+            
+            int caughtUp = 0;
+            while(now >= nextTick && caughtUp < MAX_CATCH_UP)
+            {
+                game.tick();
+                record((now - nextTick) / 1e6);
+                
+                nextTick += tickNanos;
+                caughtUp++;
+            }
+            
+            if(caughtUp == MAX_CATCH_UP && now >= nextTick) nextTick = now + tickNanos;
+            
+            if(now >= nextFrame)
+            {
+                double alpha = 1 - (double) (nextTick - now) / tickNanos;
+                game.render(Math.max(0, Math.min(1, alpha)));
+                frames++;
+                
+                nextFrame = now + frameNanos;
+            }
+            
+            // Sleep until there is something to do.
+            long wake = frameNanos > 0 ? Math.min(nextTick, nextFrame) : nextTick;
+            long sleep = wake - System.nanoTime();
+            if(sleep > 0) LockSupport.parkNanos(sleep);
+        }
+    }
+    
+    private void record(double lateness)
+    {
+        ticks++;
+        latenessSum += lateness;
+        latenessSquares += lateness * lateness;
+        latenessMax = Math.max(latenessMax, lateness);
+    }
+    
+    public long ticks()
+    {
+        return ticks;
+    }
+    
+    // Measured ticks and frames per second since the loop started.
+    public double tickRate()
+    {
+        return ticks * 1e9 / Math.max(1, System.nanoTime() - startTime);
+    }
+    
+    public double frameRate()
+    {
+        return frames * 1e9 / Math.max(1, System.nanoTime() - startTime);
+    }
+    
+    // Standard deviation of tick lateness, in milliseconds.
+    public double jitter()
+    {
+        if(ticks == 0) return 0;
+        
+        double mean = latenessSum / ticks;
+        return Math.sqrt(Math.max(0, latenessSquares / ticks - mean * mean));
+    }
+    
+    public double meanLateness()
+    {
+        return ticks == 0 ? 0 : latenessSum / ticks;
+    }
+    
+    public double maxLateness()
+    {
+        return latenessMax;
+    }
+    
+    @Override
+    public String toString()
+    {
+        return String.format("%.2f ticks/s, %.1f frames/s, lateness mean %.3f ms, jitter %.3f ms, max %.3f ms",
+            tickRate(), frameRate(), meanLateness(), jitter(), maxLateness());
+    }
+}
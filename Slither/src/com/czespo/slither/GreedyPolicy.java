@@ -0,0 +1,58 @@
+/**
+ *  Slither (a Snake clone)
+ *  Copyright (C) 2020 Czespo
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.czespo.slither;
+
+// Heads for the food along the shortest way round the board,
+// avoiding any cell the body covers, but looks no further ahead.
+public class GreedyPolicy implements SlitherPolicy
+{
+    @Override
+    public int direction(SlitherSimulation simulation, int heading)
+    {
+        int head = simulation.head(), food = simulation.food();
+        
+        int best = heading, bestDistance = Integer.MAX_VALUE;
+        for(int d = 0; d < 4; d++)
+        {
+            // The snake cannot turn back on itself.
+            if(d == (heading + 2) % 4) continue;
+            
+            int next = simulation.neighbour(head, d);
+            if(simulation.isOccupied(next)) continue;
+            
+            int distance = food < 0 ? 0 : distance(simulation, next, food);
+            if(distance < bestDistance)
+            {
+                best = d;
+                bestDistance = distance;
+            }
+        }
+        
+        return best;
+    }
+    
+    // Manhattan distance between two cells on the wrapped board.
+    static int distance(SlitherSimulation simulation, int a, int b)
+    {
+        int dx = Math.abs(a % simulation.width - b % simulation.width);
+        int dy = Math.abs(a / simulation.width - b / simulation.width);
+        
+        return Math.min(dx, simulation.width - dx) + Math.min(dy, simulation.height - dy);
+    }
+}
@@ -0,0 +1,281 @@
+/**
+ *  Slither (a Snake clone)
+ *  Copyright (C) 2020 Czespo
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.czespo.slither;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+// A recorded game: the board, the seed that placed the food, and each
+// turn the snake took, by the tick it took it on. The snake heads right
+// until its first turn. Playing the turns out on a simulation made the
+// same way plays the whole game again, which the hash of the final
+// state confirms.
+//
+// On disk, a replay is the magic number "SLRP", a version, the board
+// size, the seed, the ticks played and the final hash, then the turns:
+// each the ticks since the last one as a variable-length number,
+// followed by the direction in a byte.
+public class Replay
+{
+    // STATIC //
+    
+    static final int MAGIC = 0x534C5250;
+    static final int VERSION = 1;
+    
+    // Bytes in a replay besides its turns.
+    static final int OVERHEAD = 4 + 1 + 2 + 2 + 8 + 8 + 8 + 4;
+    
+    public static void main(String[] args)
+    {
+        // Play each replay file given out headlessly, as fast as possible,
+        // and report whether it ends as it was recorded: `a.slrp b.slrp`.
+        int passed = 0;
+        long ticks = 0, start = System.nanoTime();
+        for(String path : args)
+        {
+            try
+            {
+                Replay replay = read(path);
+                boolean ok = replay.verify();
+                if(ok) passed++;
+                ticks += replay.length();
+                
+                System.out.println(path + ": " + (ok ? "ok" : "MISMATCH") + ", " + replay.length() + " ticks, " + replay.turns() + " turns");
+            }
+            catch(IOException e)
+            {
+                System.out.println(path + ": unreadable, " + e.getMessage());
+            }
+        }
+        
+        long nanos = Math.max(1, System.nanoTime() - start);
+        System.out.println(passed + " of " + args.length + " replays match, "
+            + ticks * 1000000000L / nanos + " ticks/s.");
+    }
+    
+    public static Replay read(String path) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)));
+        try
+        {
+            if(in.readInt() != MAGIC) throw new IOException("not a Slither replay");
+            if(in.readUnsignedByte() != VERSION) throw new IOException("unsupported replay version");
+            
+            // The board must fit the snake the game starts with.
+            int width = in.readUnsignedShort(), height = in.readUnsignedShort();
+            if(width < SlitherSimulation.START_LENGTH || height < 1) throw new IOException("malformed replay");
+            
+            Replay replay = new Replay(width, height, in.readLong());
+            replay.length = in.readLong();
+            replay.hash = in.readLong();
+            
+            // Each turn takes at least two bytes, so there cannot
+            // be more turns than that in what is left of the file.
+            int count = in.readInt();
+            if(count < 0 || count > (new File(path).length() - OVERHEAD) / 2) throw new IOException("malformed replay");
+            
+            long tick = 0;
+            for(int i = 0; i < count; i++)
+            {
+                tick += readVarLong(in);
+                
+                int direction = in.readUnsignedByte();
+                if(direction > SlitherSimulation.DOWN) throw new IOException("malformed replay");
+                
+                replay.record(tick, direction);
+            }
+            
+            return replay;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+    
+    static void writeVarLong(DataOutputStream out, long value) throws IOException
+    {
+        while((value & ~0x7FL) != 0)
+        {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        
+        out.writeByte((int) value);
+    }
+    
+    static long readVarLong(DataInputStream in) throws IOException
+    {
+        long value = 0;
+        for(int shift = 0; shift < 64; shift += 7)
+        {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if((b & 0x80) == 0) return value;
+        }
+        
+        throw new IOException("malformed replay");
+    }
+    
+    // FIELDS //
+    
+    public final int width, height;
+    
+    public final long seed;
+    
+    // Ticks played, and the state's hash after them, once finished.
+    private long length, hash;
+    
+    // The turns, in the order they were taken.
+    private long[] ticks = new long[64];
+    
+    private byte[] directions = new byte[64];
+    
+    private int count;
+    
+    // The next turn to take, and the direction taken, during playback.
+    private int next;
+    
+    private int direction = SlitherSimulation.RIGHT;
+    
+    // CONSTRUCTORS //
+    
+    public Replay(int width, int height, long seed)
+    {
+        this.width = width;
+        this.height = height;
+        this.seed = seed;
+    }
+    
+    // FUNCTIONS //
+    
+    public synchronized void record(long tick, int direction)
+    {
+        if(count == ticks.length)
+        {
+            ticks = Arrays.copyOf(ticks, count * 2);
+            directions = Arrays.copyOf(directions, count * 2);
+        }
+        
+        ticks[count] = tick;
+        directions[count] = (byte) direction;
+        count++;
+    }
+    
+    // Ends the recording with the state the game was left in.
+    public synchronized void finish(SlitherSimulation simulation)
+    {
+        length = simulation.ticks();
+        hash = simulation.stateHash();
+    }
+    
+    public synchronized long length()
+    {
+        return length;
+    }
+    
+    public synchronized int turns()
+    {
+        return count;
+    }
+    
+    // A simulation set up as the recorded game was.
+    public SlitherSimulation simulation()
+    {
+        return new SlitherSimulation(width, height, seed);
+    }
+    
+    public synchronized void rewind()
+    {
+        next = 0;
+        direction = SlitherSimulation.RIGHT;
+    }
+    
+    // Returns the direction to step in on a tick, during playback.
+    // Ticks must be asked for in order, from the start.
+    public synchronized int direction(long tick)
+    {
+        while(next < count && ticks[next] <= tick)
+        {
+            direction = directions[next++];
+        }
+        
+        return direction;
+    }
+    
+    public synchronized boolean isOver(long tick)
+    {
+        return tick >= length;
+    }
+    
+    public synchronized boolean matches(SlitherSimulation simulation)
+    {
+        return simulation.ticks() == length && simulation.stateHash() == hash;
+    }
+    
+    // Plays the whole game out, without drawing it, and checks
+    // that it ends in the state it was recorded ending in.
+    public boolean verify()
+    {
+        SlitherSimulation simulation = simulation();
+        
+        rewind();
+        while(!isOver(simulation.ticks()))
+        {
+            simulation.step(direction(simulation.ticks()));
+        }
+        
+        return matches(simulation);
+    }
+    
+    public synchronized void write(String path) throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)));
+        try
+        {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeShort(width);
+            out.writeShort(height);
+            out.writeLong(seed);
+            out.writeLong(length);
+            out.writeLong(hash);
+            
+            out.writeInt(count);
+            long tick = 0;
+            for(int i = 0; i < count; i++)
+            {
+                writeVarLong(out, ticks[i] - tick);
+                out.writeByte(directions[i]);
+                tick = ticks[i];
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+}
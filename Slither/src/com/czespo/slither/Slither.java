@@ -21,27 +21,37 @@ package com.czespo.slither;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
+import java.awt.Image;
 import java.awt.Toolkit;
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
-import java.util.ArrayList;
-import java.util.List;
+import java.awt.event.KeyListener;
+import java.io.IOException;
 import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
 
 import javax.swing.JFrame;
 import javax.swing.JPanel;
-import javax.swing.Timer;
 
-public class Slither extends JPanel implements ActionListener
+public class Slither extends JPanel implements GameLoop.Game, ActiveCanvas.Painter
 {
     // STATIC //
     
+    // Default board dimensions, in cells.
     static final int B_WIDTH = 20;
     static final int B_HEIGHT = 20;
     
-    static final int DELAY = 1000 / 10;
+    // Default logic ticks per second, and the most frames drawn per second.
+    static final int TICK_RATE = 10;
+    static final int FRAME_RATE = 60;
+    
+    // How many key presses may wait for a tick. Presses beyond that are dropped.
+    static final int INPUT_QUEUE = 3;
+    
+    // The smallest cell a board is drawn with, in pixels. A board that
+    // would need smaller cells to fit the window is drawn in part
+    // instead, with the view following the head around it.
+    static final int MIN_CELL = 4;
     
     static final int LEFT = KeyEvent.VK_LEFT;
     static final int UP = KeyEvent.VK_UP;
@@ -50,8 +60,6 @@ public class Slither extends JPanel implements ActionListener
     
     static final Color DARK_GREEN = new Color(0, 128, 0);
     
-    static final Random random = new Random();
-    
     public static void main(String[] args)
     {
         boolean fullscreen = true;
@@ -59,7 +67,22 @@ public class Slither extends JPanel implements ActionListener
         // Allow a `-w` flag to launch in windowed mode.
         // Can be followed by width and height: `-w 800 600`.
         // Defaults to 800x600.
+        // Allow a `-b` flag to set the board size in cells: `-b 40 30`.
+        // Allow a `-r` flag to set the ticks per second: `-r 60`.
+        // Allow an `-a` flag to draw actively, through a BufferStrategy,
+        // and an `-f` flag to cap the frames per second: `-a -f 144`.
+        // Allow an `-m` flag to write metrics to a file on exit: `-m metrics.hgrm`.
+        // Allow a `-rec` flag to record the game to a file on exit, and a
+        // `-play` flag to play a recording back, sped up by an `-x` flag:
+        // `-rec game.slrp`, or `-play game.slrp -x 4`.
+        // Allow a `-log` flag to log every tick's state to a file on exit,
+        // as a StateLog, which can be sought through: `-log game.slst`.
         int width = 800, height = 600;
+        int bWidth = B_WIDTH, bHeight = B_HEIGHT;
+        double tickRate = TICK_RATE, frameRate = FRAME_RATE;
+        boolean active = false;
+        String metricsPath = null, recordPath = null, playPath = null, logPath = null;
+        double speed = 1;
         for(int i = 0; i < args.length; i++)
         {
             if(args[i].equals("-w"))
@@ -72,6 +95,64 @@ public class Slither extends JPanel implements ActionListener
                     height = Integer.parseInt(args[i + 2]);
                 }
             }
+            else if(args[i].equals("-b") && i + 2 < args.length)
+            {
+                bWidth = Integer.parseInt(args[i + 1]);
+                bHeight = Integer.parseInt(args[i + 2]);
+            }
+            else if(args[i].equals("-r") && i + 1 < args.length)
+            {
+                tickRate = Double.parseDouble(args[i + 1]);
+            }
+            else if(args[i].equals("-f") && i + 1 < args.length)
+            {
+                frameRate = Double.parseDouble(args[i + 1]);
+            }
+            else if(args[i].equals("-a"))
+            {
+                active = true;
+            }
+            else if(args[i].equals("-m") && i + 1 < args.length)
+            {
+                metricsPath = args[i + 1];
+            }
+            else if(args[i].equals("-rec") && i + 1 < args.length)
+            {
+                recordPath = args[i + 1];
+            }
+            else if(args[i].equals("-play") && i + 1 < args.length)
+            {
+                playPath = args[i + 1];
+            }
+            else if(args[i].equals("-x") && i + 1 < args.length)
+            {
+                speed = Double.parseDouble(args[i + 1]);
+            }
+            else if(args[i].equals("-log") && i + 1 < args.length)
+            {
+                logPath = args[i + 1];
+            }
+        }
+        
+        // A replay sets the board and seed it was recorded with.
+        Replay playback = null;
+        long seed = new Random().nextLong();
+        if(playPath != null)
+        {
+            try
+            {
+                playback = Replay.read(playPath);
+            }
+            catch(IOException e)
+            {
+                System.err.println("Error: could not read '" + playPath + "'!");
+                return;
+            }
+            
+            bWidth = playback.width;
+            bHeight = playback.height;
+            seed = playback.seed;
+            tickRate *= speed;
         }
         
         JFrame frame = new JFrame("Slither");
@@ -90,14 +171,37 @@ public class Slither extends JPanel implements ActionListener
         frame.setResizable(false);
         frame.setVisible(true);
         
-        Slither slither = new Slither(frame.getWidth(), frame.getHeight());
-        
-        frame.add(slither);
+        Slither slither = new Slither(frame.getWidth(), frame.getHeight(), bWidth, bHeight, tickRate, frameRate, seed);
+        slither.playback = playback;
+        if(recordPath != null) slither.recordOnExit(recordPath);
+        if(logPath != null) slither.logOnExit(logPath);
+        if(metricsPath != null) slither.metrics.writeOnExit(metricsPath);
         
-        frame.pack();
+        if(active)
+        {
+            // Draw to a canvas instead of the panel, which
+            // then only holds the game and handles keys.
+            ActiveCanvas canvas = new ActiveCanvas(slither, slither.paintProbe, frame.getWidth(), frame.getHeight());
+            canvas.setBackground(Color.GRAY);
+            for(KeyListener listener : slither.getKeyListeners()) canvas.addKeyListener(listener);
+            
+            frame.add(canvas);
+            frame.pack();
+            
+            slither.canvas = canvas;
+            canvas.requestFocus();
+        }
+        else
+        {
+            frame.add(slither);
+            
+            frame.pack();
+            
+            // Request focus, so that the panel may receive key events.
+            slither.requestFocus();
+        }
         
-        // Request focus, so that the panel may receive key events.
-        slither.requestFocus();
+        slither.getLoop().start();
     }
     
     // FIELDS //
@@ -106,43 +210,108 @@ public class Slither extends JPanel implements ActionListener
     
     private int cell, xp, yp;
     
+    // The cell drawn at the top left of the view, and how many cells
+    // the view shows across and down. Unless the board is larger than
+    // the view, the view starts at the board's corner and never moves.
+    private int left, top, viewWidth, viewHeight;
+    
+    private final TileCache tiles = new TileCache();
+    
+    // The direction the snake last stepped in, as a key code.
     private int direction = RIGHT;
     
-    private int length = 3;
+    // The cell the tail left on the last tick, and whether the
+    // last tick can be drawn as a slide from the one before.
+    private int oldTail;
+    
+    private boolean interpolate;
+    
+    // How far the time is between the last tick and the next.
+    private volatile double alpha;
     
     // OBJECTS //
     
-    private Timer timer;
+    private GameLoop loop;
+    
+    // Draws frames when rendering actively, or null when drawing through Swing.
+    private volatile ActiveCanvas canvas;
+    
+    // Measures drawing and ticking, and is drawn over
+    // the board while switched on with `I`.
+    private final Metrics metrics = new Metrics();
+    
+    private final Metrics.Probe paintProbe = metrics.probe("paint"), tickProbe = metrics.probe("tick");
+    
+    private volatile boolean overlay;
     
-    private List<Point> body;
+    // The game itself. This panel only feeds it key presses and
+    // ticks, and draws it. The game loop thread steps it, and the
+    // Swing thread draws it, so both lock it while they do.
+    private SlitherSimulation simulation;
     
-    private Point food;
+    // Key presses waiting for a tick. Each tick takes one turn,
+    // so quick presses are played out in order, not lost.
+    private ArrayBlockingQueue<Integer> turns = new ArrayBlockingQueue<Integer>(INPUT_QUEUE);
+    
+    // Steers the snake while switched on with `A`, or null while off.
+    private volatile Autopilot autopilot;
+    
+    // The seed that places the food, kept for recording.
+    private final long seed;
+    
+    // Records each turn the snake takes, or null when not recording.
+    private volatile Replay recording;
+    
+    // Steers the snake as it was recorded, or null when not playing back.
+    // The player takes over once the recording ends.
+    private volatile Replay playback;
+    
+    // Keeps the state after every tick, or null when not logging.
+    private volatile StateLog log;
     
     // CONSTRUCTORS //
     
     public Slither(int width, int height)
+    {
+        this(width, height, B_WIDTH, B_HEIGHT);
+    }
+    
+    public Slither(int width, int height, int bWidth, int bHeight)
+    {
+        this(width, height, bWidth, bHeight, TICK_RATE, FRAME_RATE);
+    }
+    
+    public Slither(int width, int height, int bWidth, int bHeight, double tickRate, double frameRate)
+    {
+        this(width, height, bWidth, bHeight, tickRate, frameRate, new Random().nextLong());
+    }
+    
+    public Slither(int width, int height, int bWidth, int bHeight, double tickRate, double frameRate, long seed)
     {
         wWidth = width;
         wHeight = height;
+        
+        this.seed = seed;
+        simulation = new SlitherSimulation(bWidth, bHeight, seed);
 
         // Determine cell size based on board and window dimensions.
-        // Allows the drawn board to scale to the window size.
-        cell = Math.min(wWidth / B_WIDTH, wHeight / B_HEIGHT);
+        // Allows the drawn board to scale to the window size, but
+        // not below a visible size, past which the view scrolls.
+        cell = Math.max(MIN_CELL, Math.min(wWidth / bWidth, wHeight / bHeight));
+        viewWidth = Math.max(1, Math.min(bWidth, wWidth / cell));
+        viewHeight = Math.max(1, Math.min(bHeight, wHeight / cell));
 
         // Determine x and y padding, so that we
-        // can centre the board within the window.
-        xp = (wWidth - (cell * B_WIDTH)) / 2;
-        yp = (wHeight - (cell * B_HEIGHT)) / 2;
+        // can centre the view within the window.
+        xp = (wWidth - (cell * viewWidth)) / 2;
+        yp = (wHeight - (cell * viewHeight)) / 2;
         
-        // Initialise the snake body.
-        body = new ArrayList<Point>();
-        for(int k = 0; k < length; k++)
-        {
-            body.add(new Point(B_WIDTH / 2 - k, B_HEIGHT / 2));
-        }
-
-        // Initialise the food location.
-        food = new Point(random.nextInt(B_WIDTH), random.nextInt(B_HEIGHT));
+        // Start with the head in the middle of the view.
+        int head = simulation.head();
+        if(viewWidth < bWidth) left = Math.floorMod(head % bWidth - viewWidth / 2, bWidth);
+        if(viewHeight < bHeight) top = Math.floorMod(head / bWidth - viewHeight / 2, bHeight);
+        
+        tiles.update(cell);
         
         this.setFocusable(true);
         this.setBackground(Color.GRAY);
@@ -154,10 +323,10 @@ public class Slither extends JPanel implements ActionListener
         
         this.setVisible(true);
 
-        // Each time this timer fires, the
-        // snake is moved and the window is drawn to.
-        timer = new Timer(DELAY, this);
-        timer.start();
+        // The game loop moves the snake at a fixed rate, and draws
+        // to the window in between. It is started by the caller,
+        // once the panel or a canvas is on screen.
+        loop = new GameLoop(this, tickRate, frameRate);
     }
     
     // INNER CLASSES //
@@ -174,10 +343,20 @@ public class Slither extends JPanel implements ActionListener
                 case KeyEvent.VK_UP:
                 case KeyEvent.VK_RIGHT:
                 case KeyEvent.VK_DOWN:
-                    direction = key;
+                    turns.offer(key);
+                    break;
+                    
+                case KeyEvent.VK_A:
+                    autopilot = autopilot == null ? new Autopilot() : null;
+                    break;
+                    
+                case KeyEvent.VK_I:
+                    overlay = !overlay;
                     break;
                 
                 case KeyEvent.VK_ESCAPE:
+                    System.out.println(loop);
+                    System.out.println(metrics);
                     System.exit(0);
                     break;
             }
@@ -187,114 +366,269 @@ public class Slither extends JPanel implements ActionListener
     // METHODS //
     
     @Override
-    public void actionPerformed(ActionEvent e)
+    public void tick()
     {
-        // Move the snake.
-        int nx = body.get(0).x, ny = body.get(0).y;
-        switch(direction)
-        {
-            case LEFT:
-                nx += -1;
-                break;
-
-            case UP:
-                ny += -1;
-                break;
-
-            case RIGHT:
-                nx += 1;
-                break;
-
-            case DOWN:
-                ny += 1;
-                break;
-        }
-
-        // If the snake tries to go off the edge
-        // of the board, wrap it around.
-        if(nx >= B_WIDTH)
-        {
-            nx -= B_WIDTH;
-        }
-        else if(nx < 0)
-        {
-            nx += B_WIDTH;
-        }
-        else if(ny >= B_HEIGHT)
+        tickProbe.begin();
+        synchronized(simulation)
         {
-            ny -= B_HEIGHT;
+            int previous = direction;
+            
+            Replay playback = this.playback;
+            if(playback != null && playback.isOver(simulation.ticks()))
+            {
+                System.out.println("Replay " + (playback.matches(simulation) ? "matches" : "does not match") + " its recording.");
+                this.playback = playback = null;
+            }
+            
+            if(playback != null)
+            {
+                // Steer as recorded.
+                turns.clear();
+                direction = toKey(playback.direction(simulation.ticks()));
+            }
+            else if(autopilot != null)
+            {
+                // Let the autopilot steer.
+                turns.clear();
+                direction = toKey(autopilot.direction(simulation, toSimulation(direction)));
+            }
+            else
+            {
+                // Take the next queued turn. Presses that would not change
+                // direction, or would turn the snake into its neck, are skipped.
+                Integer turn;
+                while((turn = turns.poll()) != null)
+                {
+                    if(turn != direction && turn != opposite(direction))
+                    {
+                        direction = turn;
+                        break;
+                    }
+                }
+            }
+            
+            // Record turns by the tick they are taken on,
+            // whether the player or the autopilot made them.
+            Replay recording = this.recording;
+            if(recording != null && direction != previous)
+            {
+                recording.record(simulation.ticks(), toSimulation(direction));
+            }
+            
+            // Move the snake.
+            oldTail = simulation.part(simulation.size() - 1);
+            interpolate = simulation.step(toSimulation(direction)) != SlitherSimulation.BITTEN;
+            
+            StateLog log = this.log;
+            if(log != null) log.record(simulation);
+            
+            follow(simulation.head());
         }
-        else if(ny < 0)
+        tickProbe.end();
+    }
+    
+    // Scrolls a board larger than the view, if need be, to keep
+    // the head a quarter of the view away from its edges.
+    private void follow(int head)
+    {
+        int bWidth = simulation.width, bHeight = simulation.height;
+        if(viewWidth < bWidth) left = scroll(left, head % bWidth, viewWidth, bWidth);
+        if(viewHeight < bHeight) top = scroll(top, head / bWidth, viewHeight, bHeight);
+    }
+    
+    // The board wraps around, so the view may start anywhere on it.
+    private static int scroll(int start, int at, int view, int extent)
+    {
+        int margin = view / 4, offset = Math.floorMod(at - start, extent);
+        if(offset < margin) return Math.floorMod(at - margin, extent);
+        if(offset >= view - margin) return Math.floorMod(at - view + margin + 1, extent);
+        
+        return start;
+    }
+    
+    @Override
+    public void render(double alpha)
+    {
+        this.alpha = alpha;
+        
+        // Draw now if rendering actively, or else request drawing.
+        ActiveCanvas canvas = this.canvas;
+        if(canvas != null) canvas.render();
+        else this.repaint();
+    }
+    
+    public GameLoop getLoop()
+    {
+        return loop;
+    }
+    
+    public SlitherSimulation getSimulation()
+    {
+        return simulation;
+    }
+    
+    // Records the game from this tick on, and writes it
+    // to a file when the game exits, however it exits.
+    public void recordOnExit(final String path)
+    {
+        synchronized(simulation)
         {
-            ny += B_HEIGHT;
+            // Only whole games can be played back.
+            if(simulation.ticks() > 0) throw new IllegalStateException("The game has already started.");
+            
+            recording = new Replay(simulation.width, simulation.height, seed);
         }
-
-        // Move the snake by adding a new head.
-        body.add(0, new Point(nx, ny));
-
-        // Check if the snake is eating food.
-        if(body.get(0).x == food.x && body.get(0).y == food.y)
+        
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable()
         {
-            // Increment length.
-            length++;
-
-            // Set food to a random location within the board's dimensions.
-            food.x = random.nextInt(B_WIDTH);
-            food.y = random.nextInt(B_HEIGHT);
-        }
-        else
+            @Override
+            public void run()
+            {
+                loop.stop();
+                synchronized(simulation)
+                {
+                    recording.finish(simulation);
+                }
+                
+                try
+                {
+                    recording.write(path);
+                }
+                catch(IOException e)
+                {
+                    System.err.println("Unable to write the replay to " + path + ": " + e.getMessage());
+                }
+            }
+        }));
+    }
+    
+    // Logs the state after each tick from this one on, and writes
+    // the log to a file when the game exits, however it exits.
+    public void logOnExit(final String path)
+    {
+        synchronized(simulation)
         {
-            // If the snake hasn't eaten, remove the tail.
-            body.remove(body.size() - 1);
+            log = new StateLog(simulation.width, simulation.height);
+            log.record(simulation);
         }
-
-        // Check if the snake is eating itself.
-        // Start with the third part, since the
-        // snake cannot eat any part before that.
-        for(int i = 2; i < body.size(); i++)
+        
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable()
         {
-            if(body.get(0).x == body.get(i).x && body.get(0).y == body.get(i).y)
+            @Override
+            public void run()
             {
-                // Set length to 3 and trim body.
-                length = 3;
-                while(body.size() > length)
+                loop.stop();
+                
+                try
                 {
-                    body.remove(body.size() - 1);
+                    log.write(path);
+                }
+                catch(IOException e)
+                {
+                    System.err.println("Unable to write the state log to " + path + ": " + e.getMessage());
                 }
-
-                break;
             }
-        }
-        
-        // Request drawing.
-        this.repaint();
+        }));
     }
 
     @Override
     public void paintComponent(Graphics g)
     {
+        paintProbe.begin();
+        
         super.paintComponent(g);
+        draw(g);
         
+        Toolkit.getDefaultToolkit().sync();
+        paintProbe.end();
+    }
+    
+    @Override
+    public void draw(Graphics g)
+    {
         // Do drawing.
         // Fill the board with black.
         g.setColor(Color.BLACK);
-        g.fillRect(xp, yp, cell * B_WIDTH, cell * B_WIDTH);
+        g.fillRect(xp, yp, cell * viewWidth, cell * viewHeight);
+        
+        synchronized(simulation)
+        {
+            int size = simulation.size();
+            
+            // Draw the body, in green. The head and tail are drawn
+            // part of the way through their last step, so that the
+            // snake slides smoothly between ticks.
+            Image body = tiles.get(TileCache.BODY);
+            for(int i = 1; i < size; i++) drawCell(g, body, simulation.part(i));
+            
+            if(interpolate) fillBetween(g, body, oldTail, simulation.part(size - 1));
 
-        // Draw the snake's head, in dark green.
-        g.setColor(DARK_GREEN);
-        g.fillRect(body.get(0).x * cell + xp, body.get(0).y * cell + yp, cell - 1, cell - 1);
+            // Draw the snake's head, in dark green.
+            Image head = tiles.get(TileCache.HEAD);
+            if(interpolate) fillBetween(g, head, simulation.part(1), simulation.head());
+            else fillBetween(g, head, simulation.head(), simulation.head());
 
-        // Draw the rest of the body, in green.
-        g.setColor(Color.GREEN);
-        for(int i = 1; i < body.size(); i++)
+            // Draw the food, if there is any.
+            int food = simulation.food();
+            if(food >= 0) drawCell(g, tiles.get(TileCache.FOOD), food);
+        }
+        
+        if(overlay) metrics.drawOverlay(g, xp + 4, yp + 4);
+    }
+    
+    // Fills a cell of the board, if it is in view.
+    private void drawCell(Graphics g, Image tile, int at)
+    {
+        int x = Math.floorMod(at % simulation.width - left, simulation.width);
+        int y = Math.floorMod(at / simulation.width - top, simulation.height);
+        if(x < viewWidth && y < viewHeight) g.drawImage(tile, x * cell + xp, y * cell + yp, null);
+    }
+    
+    // Fills a cell part of the way from one cell to the next. Steps that
+    // wrap around the board or the view are drawn at the destination.
+    private void fillBetween(Graphics g, Image tile, int from, int to)
+    {
+        int bWidth = simulation.width, bHeight = simulation.height;
+        int fx = Math.floorMod(from % bWidth - left, bWidth), fy = Math.floorMod(from / bWidth - top, bHeight);
+        int tx = Math.floorMod(to % bWidth - left, bWidth), ty = Math.floorMod(to / bWidth - top, bHeight);
+        if(tx >= viewWidth || ty >= viewHeight) return;
+        
+        double t = Math.abs(tx - fx) + Math.abs(ty - fy) == 1 ? alpha : 1;
+        int x = (int) Math.round((fx + (tx - fx) * t) * cell), y = (int) Math.round((fy + (ty - fy) * t) * cell);
+        
+        g.drawImage(tile, x + xp, y + yp, null);
+    }
+    
+    // FUNCTIONS //
+    
+    // Converts a key code into a SlitherSimulation direction.
+    static int toSimulation(int key)
+    {
+        switch(key)
         {
-            g.fillRect(body.get(i).x * cell + xp, body.get(i).y * cell + yp, cell - 1, cell - 1);
+            case LEFT: return SlitherSimulation.LEFT;
+            case UP: return SlitherSimulation.UP;
+            case DOWN: return SlitherSimulation.DOWN;
         }
-
-        // Draw the food.
-        g.setColor(Color.RED);
-        g.fillRect(food.x * cell + xp, food.y * cell + yp, cell - 1, cell - 1);
         
-        Toolkit.getDefaultToolkit().sync();
+        return SlitherSimulation.RIGHT;
+    }
+    
+    static int opposite(int key)
+    {
+        return toKey((toSimulation(key) + 2) % 4);
+    }
+    
+    // Converts a SlitherSimulation direction into a key code.
+    static int toKey(int direction)
+    {
+        switch(direction)
+        {
+            case SlitherSimulation.LEFT: return LEFT;
+            case SlitherSimulation.UP: return UP;
+            case SlitherSimulation.DOWN: return DOWN;
+        }
+        
+        return RIGHT;
     }
 }
@@ -0,0 +1,233 @@
+/**
+ *  Slither (a Snake clone)
+ *  Copyright (C) 2020 Czespo
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.czespo.slither;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class SlitherRunner
+{
+    // STATIC //
+    
+    public static void main(String[] args)
+    {
+        // Play many seeded games with a policy, spread over a thread
+        // pool, writing one line per game and a summary at the end.
+        // Flags (with defaults): `-g 1000` games, `-t <cores>` threads,
+        // `-b 20 20` board size, `-m 100000` ticks per game at most,
+        // `-s 1` first seed, `-p greedy` policy (or `autopilot`), `-o results.csv` output.
+        // An output file ending in `.jsonl` is written as JSON lines.
+        int games = 1000, threads = Runtime.getRuntime().availableProcessors();
+        int width = SlitherSimulation.DEFAULT_WIDTH, height = SlitherSimulation.DEFAULT_HEIGHT;
+        long maxTicks = 100000, seed = 1;
+        String policy = "greedy", output = "results.csv";
+        for(int i = 0; i < args.length; i++)
+        {
+            if(i + 1 >= args.length) break;
+            
+            switch(args[i])
+            {
+                case "-g": games = Integer.parseInt(args[i + 1]); break;
+                case "-t": threads = Integer.parseInt(args[i + 1]); break;
+                case "-m": maxTicks = Long.parseLong(args[i + 1]); break;
+                case "-s": seed = Long.parseLong(args[i + 1]); break;
+                case "-p": policy = args[i + 1]; break;
+                case "-o": output = args[i + 1]; break;
+                case "-b":
+                    if(i + 2 < args.length)
+                    {
+                        width = Integer.parseInt(args[i + 1]);
+                        height = Integer.parseInt(args[i + 2]);
+                    }
+                    break;
+            }
+        }
+        
+        // Fail early on an unknown policy, rather than in every game.
+        try
+        {
+            policy(policy);
+        }
+        catch(IllegalArgumentException e)
+        {
+            System.err.println("Error: " + e.getMessage());
+            return;
+        }
+        
+        boolean json = output.endsWith(".jsonl");
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try(PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(output))))
+        {
+            if(!json) out.println("seed,score,length,ticks,died");
+            
+            long start = System.nanoTime();
+            CompletionService<Game> done = new ExecutorCompletionService<Game>(pool);
+            for(int g = 0; g < games; g++)
+            {
+                done.submit(new Game(width, height, seed + g, maxTicks, policy));
+            }
+            
+            // Write results as games finish, which need not be in seed order.
+            Stats score = new Stats(), length = new Stats(), ticks = new Stats();
+            int deaths = 0;
+            for(int g = 0; g < games; g++)
+            {
+                Game game = done.take().get();
+                out.println(json ? game.toJson() : game.toCsv());
+                
+                score.add(game.score);
+                length.add(game.length);
+                ticks.add(game.ticks);
+                if(game.died) deaths++;
+            }
+            
+            double seconds = Math.max(1, System.nanoTime() - start) / 1e9;
+            System.out.printf("%d games on %d threads in %.2f s, %.1f games/s, %.0f ticks/s%n",
+                games, threads, seconds, games / seconds, ticks.sum / seconds);
+            System.out.println("Score:  " + score);
+            System.out.println("Length: " + length);
+            System.out.println("Ticks:  " + ticks);
+            System.out.println(deaths + " of " + games + " games ended with the snake biting itself.");
+        }
+        catch(IOException e)
+        {
+            System.err.println("Error: could not write '" + output + "'!");
+        }
+        catch(InterruptedException | ExecutionException e)
+        {
+            System.err.println("Error: " + e);
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+    
+    static SlitherPolicy policy(String name)
+    {
+        switch(name)
+        {
+            case "greedy": return new GreedyPolicy();
+            case "autopilot": return new Autopilot();
+        }
+        
+        throw new IllegalArgumentException("unknown policy '" + name + "'.");
+    }
+    
+    // INNER CLASSES //
+    
+    // One game, played until the snake bites itself or time runs out.
+    // Each game has its own simulation, random numbers and policy.
+    static class Game implements Callable<Game>
+    {
+        final int width, height;
+        
+        final long seed, maxTicks;
+        
+        final String policy;
+        
+        // Food eaten, length reached, and ticks played.
+        int score, length;
+        
+        long ticks;
+        
+        boolean died;
+        
+        Game(int width, int height, long seed, long maxTicks, String policy)
+        {
+            this.width = width;
+            this.height = height;
+            this.seed = seed;
+            this.maxTicks = maxTicks;
+            this.policy = policy;
+        }
+        
+        @Override
+        public Game call()
+        {
+            SlitherSimulation simulation = new SlitherSimulation(width, height, seed);
+            SlitherPolicy player = policy(policy);
+            
+            int heading = SlitherSimulation.RIGHT;
+            while(ticks < maxTicks)
+            {
+                heading = player.direction(simulation, heading);
+                length = simulation.length();
+                ticks++;
+                
+                int event = simulation.step(heading);
+                if(event == SlitherSimulation.ATE)
+                {
+                    score++;
+                }
+                else if(event == SlitherSimulation.BITTEN)
+                {
+                    died = true;
+                    break;
+                }
+            }
+            
+            if(!died) length = simulation.length();
+            
+            return this;
+        }
+        
+        String toCsv()
+        {
+            return seed + "," + score + "," + length + "," + ticks + "," + died;
+        }
+        
+        String toJson()
+        {
+            return "{\"seed\":" + seed + ",\"score\":" + score + ",\"length\":" + length
+                + ",\"ticks\":" + ticks + ",\"died\":" + died + "}";
+        }
+    }
+    
+    static class Stats
+    {
+        long count, min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+        
+        double sum;
+        
+        void add(long value)
+        {
+            count++;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        
+        @Override
+        public String toString()
+        {
+            if(count == 0) return "none";
+            
+            return String.format("mean %.1f, min %d, max %d", sum / count, min, max);
+        }
+    }
+}
@@ -0,0 +1,374 @@
+/**
+ *  Slither (a Snake clone)
+ *  Copyright (C) 2020 Czespo
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.czespo.slither;
+
+import java.util.Random;
+
+public class SlitherSimulation
+{
+    // STATIC //
+    
+    // Directions, which are also indices into DX and DY.
+    public static final int LEFT = 0;
+    public static final int UP = 1;
+    public static final int RIGHT = 2;
+    public static final int DOWN = 3;
+    
+    static final int[] DX = {-1, 0, 1, 0};
+    static final int[] DY = {0, -1, 0, 1};
+    
+    // What happened during a step.
+    public static final int MOVED = 0;
+    public static final int ATE = 1;
+    public static final int BITTEN = 2;
+    
+    public static final int START_LENGTH = 3;
+    
+    // Tells step to place food at random, as the game does.
+    static final int RANDOM_FOOD = -2;
+    
+    // Default board dimensions, in cells.
+    public static final int DEFAULT_WIDTH = 20;
+    public static final int DEFAULT_HEIGHT = 20;
+    
+    public static void main(String[] args)
+    {
+        // Run the game headlessly, turning at random, and report the
+        // tick rate. Allow `-n` to set the number of ticks, `-b` the board
+        // size and `-s` the seed: `-n 10000000 -b 20 20 -s 1`.
+        long ticks = 10000000, seed = 1;
+        int width = DEFAULT_WIDTH, height = DEFAULT_HEIGHT;
+        for(int i = 0; i < args.length; i++)
+        {
+            if(args[i].equals("-n") && i + 1 < args.length) ticks = Long.parseLong(args[i + 1]);
+            else if(args[i].equals("-s") && i + 1 < args.length) seed = Long.parseLong(args[i + 1]);
+            else if(args[i].equals("-b") && i + 2 < args.length)
+            {
+                width = Integer.parseInt(args[i + 1]);
+                height = Integer.parseInt(args[i + 2]);
+            }
+        }
+        
+        SlitherSimulation simulation = new SlitherSimulation(width, height, seed);
+        Random turns = new Random(seed);
+        
+        long meals = 0, bites = 0, start = System.nanoTime();
+        int direction = RIGHT;
+        for(long t = 0; t < ticks; t++)
+        {
+            if(turns.nextInt(8) == 0) direction = turns.nextInt(4);
+            
+            int event = simulation.step(direction);
+            if(event == ATE) meals++;
+            else if(event == BITTEN) bites++;
+        }
+        
+        long nanos = Math.max(1, System.nanoTime() - start);
+        System.out.println(ticks + " ticks in " + nanos / 1000000 + " ms, "
+            + ticks * 1000000000L / nanos + " ticks/s, " + meals + " meals, " + bites + " bites.");
+    }
+    
+    // FIELDS //
+    
+    public final int width, height;
+    
+    private int length;
+    
+    private long ticks;
+    
+    // OBJECTS //
+    
+    private final Random random;
+    
+    // The snake's body, as a ring buffer of cells packed as
+    // `y * width + x`. The head is at `body[head]`, and the rest
+    // of the body follows it, wrapping around the end of the array.
+    private final int[] body;
+    
+    private int head, size;
+    
+    // How many body parts are on each cell, so that
+    // self-collision can be found without a scan.
+    private final byte[] occupied;
+    
+    // The cells not covered by the snake, in no particular order,
+    // and the position of each cell in that list (or -1 if covered).
+    // Food is placed by picking a random entry, which is uniform
+    // over the free cells however full the board is.
+    private final int[] free, freeIndex;
+    
+    private int freeCount;
+    
+    // The cell holding food, or -1 if there is none.
+    private int food;
+    
+    // CONSTRUCTORS //
+    
+    public SlitherSimulation(int width, int height)
+    {
+        this(width, height, new Random().nextLong());
+    }
+    
+    public SlitherSimulation(int width, int height, long seed)
+    {
+        this(width, height, seed, START_LENGTH);
+    }
+    
+    // Starts the snake longer than usual, lying along the middle row,
+    // which it can at most fill. A bite still trims it to the usual length.
+    public SlitherSimulation(int width, int height, long seed, int length)
+    {
+        if(length < 1 || length > width)
+        {
+            throw new IllegalArgumentException("Snake of length " + length + " does not fit a board " + width + " wide.");
+        }
+        
+        this.width = width;
+        this.height = height;
+        
+        random = new Random(seed);
+        
+        // Initialise the snake body.
+        // It can at most cover the board, plus the head
+        // briefly overlapping a part it is about to eat.
+        body = new int[width * height + 1];
+        occupied = new byte[width * height];
+        
+        free = new int[width * height];
+        freeIndex = new int[width * height];
+        for(int i = 0; i < free.length; i++)
+        {
+            free[i] = i;
+            freeIndex[i] = i;
+        }
+        
+        freeCount = free.length;
+        
+        this.length = length;
+        for(int k = length - 1; k >= 0; k--)
+        {
+            addHead((height / 2) * width + Math.floorMod(width / 2 - k, width));
+        }
+
+        // Initialise the food location.
+        placeFood();
+    }
+    
+    // FUNCTIONS //
+    
+    public int length()
+    {
+        return length;
+    }
+    
+    public long ticks()
+    {
+        return ticks;
+    }
+    
+    public int size()
+    {
+        return size;
+    }
+    
+    // Returns the cell of a body part, counting from the head.
+    public int part(int i)
+    {
+        return body[(head + i) % body.length];
+    }
+    
+    public int head()
+    {
+        return body[head];
+    }
+    
+    public int food()
+    {
+        return food;
+    }
+    
+    // A hash of everything that decides how the game goes on from here,
+    // bar the food's random number generator: the ticks played, the
+    // snake's length and body, and the food. Replays compare it to check
+    // that a game played out the same way twice.
+    public long stateHash()
+    {
+        long hash = 0xcbf29ce484222325L;
+        hash = (hash ^ ticks) * 0x100000001b3L;
+        hash = (hash ^ length) * 0x100000001b3L;
+        hash = (hash ^ food) * 0x100000001b3L;
+        for(int i = 0; i < size; i++)
+        {
+            hash = (hash ^ part(i)) * 0x100000001b3L;
+        }
+        
+        return hash;
+    }
+    
+    public boolean isOccupied(int cell)
+    {
+        return occupied[cell] != 0;
+    }
+    
+    // Returns the cell one step from another in a direction,
+    // wrapping around the edges of the board.
+    public int neighbour(int cell, int direction)
+    {
+        int x = cell % width + DX[direction], y = cell / width + DY[direction];
+        if(x == width) x = 0;
+        else if(x < 0) x = width - 1;
+        
+        if(y == height) y = 0;
+        else if(y < 0) y = height - 1;
+        
+        return y * width + x;
+    }
+    
+    // Moves the snake one cell in a direction, returning what happened.
+    public int step(int direction)
+    {
+        return step(direction, RANDOM_FOOD);
+    }
+    
+    // Steps as above, but when food is to be placed, puts it on a given
+    // cell instead of a random one, to play back a game whose food is known.
+    int step(int direction, int nextFood)
+    {
+        ticks++;
+        
+        // Move the snake.
+        // If the snake tries to go off the edge
+        // of the board, wrap it around.
+        int nx = body[head] % width + DX[direction], ny = body[head] / width + DY[direction];
+        if(nx >= width)
+        {
+            nx -= width;
+        }
+        else if(nx < 0)
+        {
+            nx += width;
+        }
+        else if(ny >= height)
+        {
+            ny -= height;
+        }
+        else if(ny < 0)
+        {
+            ny += height;
+        }
+        
+        int next = ny * width + nx;
+
+        // Check if the snake is eating food.
+        boolean eating = next == food;
+        if(eating)
+        {
+            // Increment length.
+            length++;
+        }
+        else
+        {
+            // If the snake hasn't eaten, remove the tail.
+            // This happens before the head moves, so
+            // the head may follow right behind the tail.
+            removeTail();
+        }
+
+        // Check if the snake is eating itself,
+        // i.e. if the new head lands on its body.
+        boolean bitten = occupied[next] != 0;
+
+        // Move the snake by adding a new head.
+        addHead(next);
+        
+        // Once the head covers the food, put new food on a free cell.
+        // If the board was full, try again now that cells may be free.
+        if(eating || food < 0)
+        {
+            if(nextFood == RANDOM_FOOD) placeFood();
+            else food = nextFood;
+        }
+
+        if(bitten)
+        {
+            // Set length to 3 and trim body.
+            length = START_LENGTH;
+            while(size > length)
+            {
+                removeTail();
+            }
+            
+            return BITTEN;
+        }
+        
+        return eating ? ATE : MOVED;
+    }
+    
+    // Puts the game in a recorded state: the ticks played, the length,
+    // the body, head first, and the food. The food's random number
+    // generator is left as it was, so food placed from here on differs
+    // from the recorded game's, unless step is told where it goes.
+    void restore(long ticks, int length, int[] cells, int size, int food)
+    {
+        while(this.size > 0) removeTail();
+        
+        head = 0;
+        for(int i = size - 1; i >= 0; i--) addHead(cells[i]);
+        
+        this.ticks = ticks;
+        this.length = length;
+        this.food = food;
+    }
+    
+    private void addHead(int cell)
+    {
+        head = (head == 0 ? body.length : head) - 1;
+        body[head] = cell;
+        size++;
+        
+        if(occupied[cell]++ == 0)
+        {
+            // Take the cell out of the free list, by moving
+            // the last free cell into its place.
+            int last = free[--freeCount];
+            free[freeIndex[cell]] = last;
+            freeIndex[last] = freeIndex[cell];
+            freeIndex[cell] = -1;
+        }
+    }
+    
+    private void removeTail()
+    {
+        size--;
+        
+        int cell = body[(head + size) % body.length];
+        if(--occupied[cell] == 0)
+        {
+            free[freeCount] = cell;
+            freeIndex[cell] = freeCount++;
+        }
+    }
+    
+    private void placeFood()
+    {
+        // Set food to a random cell the snake does not cover.
+        // If the snake covers the whole board, there is nowhere to put it.
+        food = freeCount == 0 ? -1 : free[random.nextInt(freeCount)];
+    }
+}
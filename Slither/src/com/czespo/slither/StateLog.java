@@ -0,0 +1,495 @@
+/**
+ *  Slither (a Snake clone)
+ *  Copyright (C) 2020 Czespo
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.czespo.slither;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+// A game's states, tick by tick, kept small enough to send or store every
+// tick, and to seek back and forth through. Every so many ticks, a
+// keyframe holds the whole state: the ticks played, the length, the body
+// and the food. Each tick in between is a delta: a byte holding the
+// direction the head moved in and whether the food moved, then the new
+// food cell if it did. The rest follows from the rules, so whether the
+// tail left, or the snake grew or was bitten, is found by stepping a
+// simulation. A delta is no larger for a long snake than a short one,
+// and ticks in a row that move the same way, without new food, share
+// one byte.
+//
+// Seeking restores the keyframe at or before a tick, and steps on from
+// there, so it takes at most a keyframe interval of steps.
+//
+// On disk, a log is the magic number "SLST", a version, the board size,
+// the keyframe interval, the tick and offset of each keyframe, then the
+// deltas and keyframes, as they were recorded.
+public class StateLog
+{
+    // STATIC //
+    
+    static final int MAGIC = 0x534C5354;
+    static final int VERSION = 1;
+    
+    public static final int KEYFRAME_INTERVAL = 256;
+    
+    // A delta byte holds the direction in its lowest two bits, then
+    // whether the food moved, then how many more ticks it stands for.
+    static final int FOOD_MOVED = 4;
+    static final int RUN_SHIFT = 3;
+    static final int MAX_RUN = 0x7F >> RUN_SHIFT;
+    
+    // Starts a keyframe, and is set in no delta byte.
+    static final int KEYFRAME = 0x80;
+    
+    // A keyframe holds the body as the head's cell and the direction from
+    // each part to the next, four to a byte, or as every cell where
+    // parts overlap, which a bite can leave behind.
+    static final int BODY_DIRECTIONS = 0;
+    static final int BODY_CELLS = 1;
+    
+    public static void main(String[] args)
+    {
+        // Log a game, report how much space it takes, then seek to random
+        // ticks and check each against the game as it was played. The game
+        // is a replay file if one is given, or else the autopilot playing
+        // for `-n` ticks on a board set by `-b`, with the seed `-s`. Allow
+        // `-k` to set the keyframe interval, and `-o` to write the log to a
+        // file: `-n 100000 -b 40 40 -k 256 -o game.slst`, or `game.slrp`.
+        long ticks = 100000, seed = 1;
+        int width = 40, height = 40, interval = KEYFRAME_INTERVAL;
+        String replayPath = null, outPath = null;
+        for(int i = 0; i < args.length; i++)
+        {
+            if(args[i].equals("-n") && i + 1 < args.length) ticks = Long.parseLong(args[++i]);
+            else if(args[i].equals("-s") && i + 1 < args.length) seed = Long.parseLong(args[++i]);
+            else if(args[i].equals("-k") && i + 1 < args.length) interval = Integer.parseInt(args[++i]);
+            else if(args[i].equals("-o") && i + 1 < args.length) outPath = args[++i];
+            else if(args[i].equals("-b") && i + 2 < args.length)
+            {
+                width = Integer.parseInt(args[++i]);
+                height = Integer.parseInt(args[++i]);
+            }
+            else replayPath = args[i];
+        }
+        
+        Replay replay = null;
+        if(replayPath != null)
+        {
+            try
+            {
+                replay = Replay.read(replayPath);
+            }
+            catch(IOException e)
+            {
+                System.err.println("Error: could not read '" + replayPath + "'!");
+                return;
+            }
+            
+            width = replay.width;
+            height = replay.height;
+            ticks = replay.length();
+        }
+        
+        // Play the game out, logging each tick, and keep each
+        // tick's hash to check seeking against afterwards.
+        SlitherSimulation simulation = replay != null ? replay.simulation() : new SlitherSimulation(width, height, seed);
+        Autopilot autopilot = new Autopilot();
+        StateLog log = new StateLog(width, height, interval);
+        long[] hashes = new long[(int) ticks + 1];
+        long full = 0;
+        
+        int direction = SlitherSimulation.RIGHT;
+        log.record(simulation);
+        hashes[0] = simulation.stateHash();
+        for(int t = 1; t <= ticks; t++)
+        {
+            direction = replay != null ? replay.direction(simulation.ticks()) : autopilot.direction(simulation, direction);
+            simulation.step(direction);
+            
+            log.record(simulation);
+            hashes[t] = simulation.stateHash();
+            
+            // What sending the whole state would have taken: the
+            // length, each cell and the food, as ints.
+            full += 4 * (2 + simulation.size());
+        }
+        
+        System.out.printf("%d ticks, snake ended %d long: %d bytes, %.3f bytes per tick, %d keyframes taking %d bytes, against %.1f bytes per tick for whole states.%n",
+            ticks, simulation.length(), log.size(), (double) log.size() / ticks,
+            log.keyframes(), log.keyframeBytes(), (double) full / ticks);
+        
+        // Seek to random ticks, and check each state.
+        Random random = new Random(seed);
+        SlitherSimulation seeker = new SlitherSimulation(width, height, 0);
+        int seeks = 1000, wrong = 0;
+        long start = System.nanoTime();
+        for(int i = 0; i < seeks; i++)
+        {
+            int tick = random.nextInt((int) ticks + 1);
+            log.seek(tick, seeker);
+            if(seeker.stateHash() != hashes[tick]) wrong++;
+        }
+        
+        long nanos = System.nanoTime() - start;
+        System.out.printf("%d seeks, %.1f us each, %d wrong.%n", seeks, nanos / 1e3 / seeks, wrong);
+        
+        if(outPath != null)
+        {
+            try
+            {
+                log.write(outPath);
+            }
+            catch(IOException e)
+            {
+                System.err.println("Unable to write the log to " + outPath + ": " + e.getMessage());
+            }
+        }
+    }
+    
+    public static StateLog read(String path) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)));
+        try
+        {
+            if(in.readInt() != MAGIC) throw new IOException("not a Slither state log");
+            if(in.readUnsignedByte() != VERSION) throw new IOException("unsupported state log version");
+            
+            StateLog log = new StateLog(in.readUnsignedShort(), in.readUnsignedShort(), in.readInt());
+            log.lastTick = in.readLong();
+            
+            log.keyCount = in.readInt();
+            log.keyTicks = new long[Math.max(1, log.keyCount)];
+            log.keyOffsets = new int[Math.max(1, log.keyCount)];
+            for(int i = 0; i < log.keyCount; i++)
+            {
+                log.keyTicks[i] = in.readLong();
+                log.keyOffsets[i] = in.readInt();
+            }
+            
+            log.length = in.readInt();
+            log.data = new byte[Math.max(1, log.length)];
+            in.readFully(log.data, 0, log.length);
+            
+            return log;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+    
+    // Returns the direction that leads from one cell to
+    // another beside it, or -1 if they are not beside.
+    static int direction(SlitherSimulation simulation, int from, int to)
+    {
+        for(int direction = 0; direction < 4; direction++)
+        {
+            if(simulation.neighbour(from, direction) == to) return direction;
+        }
+        
+        return -1;
+    }
+    
+    // FIELDS //
+    
+    public final int width, height;
+    
+    public final int interval;
+    
+    // The deltas and keyframes, and the tick and offset of each keyframe.
+    private byte[] data = new byte[1024];
+    
+    private int length;
+    
+    private long[] keyTicks = new long[16];
+    
+    private int[] keyOffsets = new int[16];
+    
+    private int keyCount, keyframeBytes;
+    
+    // The last tick recorded, its head and food, and where the last
+    // delta byte is, while more ticks may join it, or else -1.
+    private long lastTick = -1;
+    
+    private int lastHead, lastFood, lastDelta = -1;
+    
+    // Where reading is up to, while seeking.
+    private int position;
+    
+    // CONSTRUCTORS //
+    
+    public StateLog(int width, int height)
+    {
+        this(width, height, KEYFRAME_INTERVAL);
+    }
+    
+    public StateLog(int width, int height, int interval)
+    {
+        if(interval < 1) throw new IllegalArgumentException("Keyframe interval must be positive, not " + interval + ".");
+        
+        this.width = width;
+        this.height = height;
+        this.interval = interval;
+    }
+    
+    // FUNCTIONS //
+    
+    // Bytes taken by the whole log, and by its keyframes alone.
+    public synchronized int size()
+    {
+        return length;
+    }
+    
+    public synchronized int keyframeBytes()
+    {
+        return keyframeBytes;
+    }
+    
+    public synchronized int keyframes()
+    {
+        return keyCount;
+    }
+    
+    public synchronized long firstTick()
+    {
+        return keyCount == 0 ? -1 : keyTicks[0];
+    }
+    
+    public synchronized long lastTick()
+    {
+        return lastTick;
+    }
+    
+    // Records the state a simulation is in, which should be the tick
+    // after the last one recorded. A state that is not, such as a game
+    // started over, is kept as a keyframe.
+    public synchronized void record(SlitherSimulation simulation)
+    {
+        if(simulation.width != width || simulation.height != height)
+        {
+            throw new IllegalArgumentException("Simulation is " + simulation.width + "x" + simulation.height
+                + ", but the log is for " + width + "x" + height + ".");
+        }
+        
+        long tick = simulation.ticks();
+        int head = simulation.head(), food = simulation.food();
+        int direction = tick == lastTick + 1 ? direction(simulation, lastHead, head) : -1;
+        if(keyCount == 0 || direction < 0 || tick - keyTicks[keyCount - 1] >= interval)
+        {
+            writeKeyframe(simulation);
+        }
+        else if(food == lastFood && lastDelta >= 0 && (data[lastDelta] & 3) == direction && (data[lastDelta] >> RUN_SHIFT) < MAX_RUN)
+        {
+            // Another tick like the last.
+            data[lastDelta] += 1 << RUN_SHIFT;
+        }
+        else
+        {
+            lastDelta = length;
+            put(direction | (food != lastFood ? FOOD_MOVED : 0));
+            if(food != lastFood) putVarLong(food + 1);
+        }
+        
+        lastTick = tick;
+        lastHead = head;
+        lastFood = food;
+    }
+    
+    // Puts a simulation in the state recorded on a tick. Its food's
+    // random number generator is left as it was, so it may be stepped on
+    // from here, but food it places will differ from the recorded game's.
+    public synchronized void seek(long tick, SlitherSimulation into)
+    {
+        if(into.width != width || into.height != height)
+        {
+            throw new IllegalArgumentException("Simulation is " + into.width + "x" + into.height
+                + ", but the log is for " + width + "x" + height + ".");
+        }
+        
+        if(keyCount == 0 || tick < keyTicks[0] || tick > lastTick)
+        {
+            throw new IllegalArgumentException("Tick " + tick + " is not in the log.");
+        }
+        
+        int key = Arrays.binarySearch(keyTicks, 0, keyCount, tick);
+        if(key < 0) key = -key - 2;
+        
+        position = keyOffsets[key];
+        readKeyframe(into);
+        while(into.ticks() < tick)
+        {
+            int delta = data[position++];
+            int direction = delta & 3, run = (delta >> RUN_SHIFT) + 1;
+            int food = (delta & FOOD_MOVED) != 0 ? (int) readVarLong() - 1 : into.food();
+            
+            into.step(direction, food);
+            for(int i = 1; i < run && into.ticks() < tick; i++) into.step(direction, into.food());
+        }
+    }
+    
+    // Returns a simulation in the state recorded on a tick.
+    public SlitherSimulation seek(long tick)
+    {
+        SlitherSimulation simulation = new SlitherSimulation(width, height, 0);
+        seek(tick, simulation);
+        return simulation;
+    }
+    
+    public synchronized void write(String path) throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)));
+        try
+        {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeShort(width);
+            out.writeShort(height);
+            out.writeInt(interval);
+            out.writeLong(lastTick);
+            
+            out.writeInt(keyCount);
+            for(int i = 0; i < keyCount; i++)
+            {
+                out.writeLong(keyTicks[i]);
+                out.writeInt(keyOffsets[i]);
+            }
+            
+            out.writeInt(length);
+            out.write(data, 0, length);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+    
+    private void writeKeyframe(SlitherSimulation simulation)
+    {
+        if(keyCount == keyTicks.length)
+        {
+            keyTicks = Arrays.copyOf(keyTicks, keyCount * 2);
+            keyOffsets = Arrays.copyOf(keyOffsets, keyCount * 2);
+        }
+        
+        int start = length;
+        keyTicks[keyCount] = simulation.ticks();
+        keyOffsets[keyCount] = start;
+        keyCount++;
+        
+        put(KEYFRAME);
+        putVarLong(simulation.ticks());
+        putVarLong(simulation.length());
+        putVarLong(simulation.size());
+        putVarLong(simulation.food() + 1);
+        
+        // Write each part's direction from the one before it,
+        // unless some part lies on top of the one before it.
+        int size = simulation.size();
+        boolean beside = true;
+        for(int i = 1; i < size && beside; i++)
+        {
+            beside = direction(simulation, simulation.part(i - 1), simulation.part(i)) >= 0;
+        }
+        
+        if(beside)
+        {
+            put(BODY_DIRECTIONS);
+            putVarLong(simulation.head());
+            
+            int packed = 0;
+            for(int i = 1; i < size; i++)
+            {
+                packed |= direction(simulation, simulation.part(i - 1), simulation.part(i)) << 2 * ((i - 1) % 4);
+                if((i - 1) % 4 == 3 || i == size - 1)
+                {
+                    put(packed);
+                    packed = 0;
+                }
+            }
+        }
+        else
+        {
+            put(BODY_CELLS);
+            for(int i = 0; i < size; i++) putVarLong(simulation.part(i));
+        }
+        
+        keyframeBytes += length - start;
+        lastDelta = -1;
+    }
+    
+    private void readKeyframe(SlitherSimulation into)
+    {
+        position++;
+        long tick = readVarLong();
+        int length = (int) readVarLong(), size = (int) readVarLong(), food = (int) readVarLong() - 1;
+        
+        int[] cells = new int[size];
+        if(data[position++] == BODY_DIRECTIONS)
+        {
+            cells[0] = (int) readVarLong();
+            for(int i = 1; i < size; i++)
+            {
+                int packed = data[position + (i - 1) / 4];
+                cells[i] = into.neighbour(cells[i - 1], packed >> 2 * ((i - 1) % 4) & 3);
+            }
+            
+            position += (size + 2) / 4;
+        }
+        else
+        {
+            for(int i = 0; i < size; i++) cells[i] = (int) readVarLong();
+        }
+        
+        into.restore(tick, length, cells, size, food);
+    }
+    
+    private void put(int b)
+    {
+        if(length == data.length) data = Arrays.copyOf(data, length * 2);
+        data[length++] = (byte) b;
+    }
+    
+    private void putVarLong(long value)
+    {
+        while((value & ~0x7FL) != 0)
+        {
+            put((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        
+        put((int) value);
+    }
+    
+    private long readVarLong()
+    {
+        long value = 0;
+        for(int shift = 0; ; shift += 7)
+        {
+            int b = data[position++];
+            value |= (long) (b & 0x7F) << shift;
+            if((b & 0x80) == 0) return value;
+        }
+    }
+}
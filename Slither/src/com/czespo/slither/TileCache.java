@@ -0,0 +1,93 @@
+/**
+ *  Slither (a Snake clone)
+ *  Copyright (C) 2020 Czespo
+ *  
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.czespo.slither;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+
+// Holds a pre-drawn image of each kind of tile at the current cell size.
+// Images are made compatible with the screen where there is one, so
+// that drawing them is a plain, usually accelerated, copy.
+public class TileCache
+{
+    // STATIC //
+    
+    public static final int BODY = 0;
+    public static final int HEAD = 1;
+    public static final int FOOD = 2;
+    
+    static final int TILE_COUNT = 3;
+    
+    public static BufferedImage createImage(int width, int height, int transparency)
+    {
+        if(!GraphicsEnvironment.isHeadless())
+        {
+            GraphicsConfiguration config = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                .getDefaultScreenDevice().getDefaultConfiguration();
+            
+            return config.createCompatibleImage(width, height, transparency);
+        }
+        
+        return new BufferedImage(width, height, transparency == Transparency.OPAQUE
+            ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+    }
+    
+    // FIELDS //
+    
+    private final BufferedImage[] tiles = new BufferedImage[TILE_COUNT];
+    
+    private int cell = -1;
+    
+    // FUNCTIONS //
+    
+    public BufferedImage get(int tile)
+    {
+        return tiles[tile];
+    }
+    
+    // Redraws the tiles, if the cell size has changed since they were drawn.
+    public void update(int cell)
+    {
+        if(cell == this.cell || cell <= 0) return;
+        
+        this.cell = cell;
+        
+        tiles[BODY] = tile(Color.GREEN);
+        tiles[HEAD] = tile(Slither.DARK_GREEN);
+        tiles[FOOD] = tile(Color.RED);
+    }
+    
+    // Draws a square of a colour, leaving a one pixel
+    // gap to the right and below as the grid line.
+    private BufferedImage tile(Color color)
+    {
+        BufferedImage tile = createImage(cell, cell, Transparency.BITMASK);
+        
+        Graphics g = tile.getGraphics();
+        g.setColor(color);
+        g.fillRect(0, 0, cell - 1, cell - 1);
+        g.dispose();
+        
+        return tile;
+    }
+}